@@ -0,0 +1,196 @@
+package se.aleborn.pdfviewer;
+
+import android.app.Instrumentation;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PointF;
+import android.os.Debug;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import se.aleborn.pdfviewer.listener.OnLoadCompleteListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Steady state drawing mustn't allocate, objects allocated on every frame cause GC pauses while scrolling.
+ * Allocations are counted on the UI thread only, parts are rendered and decoded on other threads.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DrawAllocationTest {
+
+    private static final int WARM_UP_FRAMES = 10;
+    private static final int FRAMES = 100;
+
+    private static final long TIMEOUT = 10000;
+
+    private Instrumentation instrumentation;
+
+    private TestActivity activity;
+
+    private PDFView pdfView;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        file = TestDocuments.create(instrumentation.getTargetContext(), "draw-allocation.pdf", 20);
+        activity = TestActivity.launch(instrumentation);
+    }
+
+    @After
+    public void tearDown() {
+        activity.finish();
+    }
+
+    @Test
+    public void drawAllocatesNothing() throws InterruptedException {
+        load(false, false);
+        assertEquals(0, countDrawAllocations());
+    }
+
+    @Test
+    public void zoomedDrawAllocatesNothing() throws InterruptedException {
+        load(false, false);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pdfView.zoomCenteredTo(3f, center());
+                pdfView.loadPages();
+            }
+        });
+        awaitVisibleParts();
+        assertEquals(0, countDrawAllocations());
+    }
+
+    @Test
+    public void scalePreviewDrawAllocatesNothing() throws InterruptedException {
+        load(true, false);
+        final boolean[] pinned = new boolean[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // pinch in progress, pinned parts are drawn scaled
+                pdfView.onScaleBegin();
+                pdfView.zoomCenteredRelativeTo(1.5f, center());
+                pinned[0] = pdfView.cacheManager.hasPinnedParts();
+            }
+        });
+        assertTrue("No pinned parts", pinned[0]);
+        assertEquals(0, countDrawAllocations());
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pdfView.onScaleEnd();
+            }
+        });
+    }
+
+    @Test
+    public void compositeDrawAllocatesNothing() throws InterruptedException {
+        load(false, true);
+        // the first page fits the view, its tiles are merged once the view is idle
+        final boolean[] composited = {false};
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT;
+        while (!composited[0] && SystemClock.uptimeMillis() < deadline) {
+            Thread.sleep(50);
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    composited[0] = pdfView.pageCompositor.getComposite(0, pdfView.getTileZoom()) != null;
+                }
+            });
+        }
+        assertTrue("Page not composited", composited[0]);
+        assertEquals(0, countDrawAllocations());
+    }
+
+    /**
+     * Show the test document in a view attached to the test activity and wait until it's rendered
+     */
+    private void load(final boolean scalePreview, final boolean compositing) throws InterruptedException {
+        final CountDownLatch loaded = new CountDownLatch(1);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pdfView = new PDFView(activity, null);
+                activity.setContentView(pdfView);
+                pdfView.fromFile(file)
+                        .scalePreview(scalePreview)
+                        .compositing(compositing)
+                        .onLoad(new OnLoadCompleteListener() {
+                            @Override
+                            public void loadComplete(int nbPages) {
+                                loaded.countDown();
+                            }
+                        })
+                        .load();
+            }
+        });
+        assertTrue("Document not loaded", loaded.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        awaitVisibleParts();
+    }
+
+    private PointF center() {
+        return new PointF(pdfView.getWidth() / 2f, pdfView.getHeight() / 2f);
+    }
+
+    /**
+     * Wait until parts of the visible area are rendered and cached
+     */
+    private void awaitVisibleParts() throws InterruptedException {
+        final boolean[] rendering = {true};
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT;
+        while (rendering[0] && SystemClock.uptimeMillis() < deadline) {
+            Thread.sleep(50);
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    rendering[0] = pdfView.renderingPool.hasVisibleTasks();
+                }
+            });
+        }
+        assertTrue("Visible parts not rendered", !rendering[0]);
+        // let results posted by the workers reach the cache
+        instrumentation.waitForIdleSync();
+    }
+
+    /**
+     * @return number of objects allocated by drawing {@link #FRAMES} frames, after the draw list is warmed up
+     */
+    private int countDrawAllocations() {
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(pdfView.getWidth(), pdfView.getHeight(),
+                Bitmap.Config.ARGB_8888));
+        final int[] allocations = new int[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            @SuppressWarnings("deprecation")
+            public void run() {
+                for (int i = 0; i < WARM_UP_FRAMES; i++) {
+                    pdfView.onDraw(canvas);
+                }
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 0; i < FRAMES; i++) {
+                    pdfView.onDraw(canvas);
+                }
+                Debug.stopAllocCounting();
+                allocations[0] = Debug.getThreadAllocCount();
+            }
+        });
+        return allocations[0];
+    }
+}
@@ -0,0 +1,135 @@
+package se.aleborn.pdfviewer;
+
+import android.content.Context;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import se.aleborn.pdfviewer.model.Size;
+import se.aleborn.pdfviewer.util.FitPolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link PdfFile#getPageAtOffset(float, float)} with the linear scan over boxed offsets
+ * it replaced, on a layout of 100k pages. The pages repeat one document page and the layout
+ * is incremental, so it's built without measuring 100k pages.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PageAtOffsetBenchmarkTest {
+
+    private static final String TAG = PageAtOffsetBenchmarkTest.class.getSimpleName();
+
+    private static final int PAGES = 100000;
+
+    private static final float ZOOM = 1.5f;
+
+    private static final int LINEAR_LOOKUPS = 200;
+    private static final int BINARY_LOOKUPS = 200000;
+
+    private static final int SPACING = 10;
+    private static final boolean AUTO_SPACING = false;
+
+    private PdfFile pdfFile;
+
+    /** Layout of {@link #pdfFile} as it was stored before, at zoom 1 */
+    private final List<Float> pageOffsets = new ArrayList<>();
+    private final List<Float> pageSpacing = new ArrayList<>();
+    private float spacingPx;
+    private boolean autoSpacing;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File file = TestDocuments.create(context, "page-at-offset.pdf", 1);
+        pdfFile = new PdfFile(ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY), 1,
+                FitPolicy.WIDTH, new Size(1080, 1920), new int[PAGES], true, SPACING, AUTO_SPACING, false,
+                true, 0, null, null);
+        for (int i = 0; i < pdfFile.getPagesCount(); i++) {
+            pageOffsets.add(pdfFile.getPageOffset(i, 1));
+            pageSpacing.add(pdfFile.getPageSpacing(i, 1));
+        }
+        spacingPx = pdfFile.getPageSpacing(0, 1);
+        autoSpacing = AUTO_SPACING;
+    }
+
+    @After
+    public void tearDown() {
+        pdfFile.dispose();
+    }
+
+    @Test
+    public void binarySearchMatchesLinearScan() {
+        float docLen = pdfFile.getDocLen(ZOOM);
+        for (int i = 0; i <= 1000; i++) {
+            float offset = docLen * i / 1000;
+            assertEquals("Page at offset " + offset, linearPageAtOffset(offset), pdfFile.getPageAtOffset(offset, ZOOM));
+        }
+        assertEquals(0, pdfFile.getPageAtOffset(-1, ZOOM));
+        assertEquals(PAGES - 1, pdfFile.getPageAtOffset(docLen + 1, ZOOM));
+    }
+
+    @Test
+    public void pageAtOffsetTimings() {
+        float docLen = pdfFile.getDocLen(ZOOM);
+        // the result is summed, so lookups aren't optimized away
+        long checksum = 0;
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < LINEAR_LOOKUPS; i++) {
+            checksum += linearPageAtOffset(docLen * i / LINEAR_LOOKUPS);
+        }
+        long linearNanos = (SystemClock.elapsedRealtimeNanos() - start) / LINEAR_LOOKUPS;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BINARY_LOOKUPS; i++) {
+            checksum += pdfFile.getPageAtOffset(docLen * i / BINARY_LOOKUPS, ZOOM);
+        }
+        long binaryNanos = (SystemClock.elapsedRealtimeNanos() - start) / BINARY_LOOKUPS;
+
+        Log.i(TAG, PAGES + " pages: linear scan " + linearNanos + " ns, binary search " + binaryNanos
+                + " ns per lookup (checksum " + checksum + ")");
+    }
+
+    private int linearPageAtOffset(float offset) {
+        return getPageAtOffset(offset, ZOOM);
+    }
+
+    /*
+     * PdfFile#getPageAtOffset and PdfFile#getPageSpacing before page offsets were held in arrays
+     * and binary searched
+     */
+
+    private int getPageAtOffset(float offset, float zoom) {
+        int currentPage = 0;
+        for (int i = 0; i < getPagesCount(); i++) {
+            float off = pageOffsets.get(i) * zoom - getPageSpacing(i, zoom) / 2f;
+            if (off >= offset) {
+                break;
+            }
+            currentPage++;
+        }
+        return --currentPage >= 0 ? currentPage : 0;
+    }
+
+    private float getPageSpacing(int pageIndex, float zoom) {
+        float spacing = autoSpacing ? pageSpacing.get(pageIndex) : spacingPx;
+        return spacing * zoom;
+    }
+
+    private int getPagesCount() {
+        return pdfFile.getPagesCount();
+    }
+}
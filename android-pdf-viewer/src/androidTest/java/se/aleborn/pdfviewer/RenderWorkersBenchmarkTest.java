@@ -0,0 +1,181 @@
+package se.aleborn.pdfviewer;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.RectF;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import se.aleborn.pdfviewer.model.PagePart;
+import se.aleborn.pdfviewer.model.Size;
+import se.aleborn.pdfviewer.util.Constants;
+import se.aleborn.pdfviewer.util.FitPolicy;
+import se.aleborn.pdfviewer.util.MathUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures tiles rendered per second by {@link RenderingPool} with 1 to {@link #MAX_WORKERS} workers.
+ * Tiles take the same way as tiles requested by {@link PagesLoader}, from the pool to its workers
+ * and back to the UI thread, only caching is left out. Results are logged.
+ * <p>
+ * Newer platform versions serialize native calls of PdfRenderer with a process wide lock,
+ * so the scaling there comes from page opening and bitmap handling done in parallel.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RenderWorkersBenchmarkTest {
+
+    private static final String TAG = RenderWorkersBenchmarkTest.class.getSimpleName();
+
+    private static final int MAX_WORKERS = 4;
+
+    private static final int PAGES = 4;
+
+    /** Pages are rendered at this scale of their original size */
+    private static final int SCALE = 3;
+
+    private static final long TIMEOUT = 60000;
+
+    private Instrumentation instrumentation;
+
+    private TestActivity activity;
+
+    private CountingPDFView pdfView;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        file = TestDocuments.create(instrumentation.getTargetContext(), "render-workers.pdf", PAGES);
+        activity = TestActivity.launch(instrumentation);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pdfView = new CountingPDFView(activity);
+                activity.setContentView(pdfView);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        activity.finish();
+    }
+
+    @Test
+    public void tilesPerSecond() throws Exception {
+        // first run warms up the renderer, it isn't reported
+        renderTiles(1);
+        StringBuilder report = new StringBuilder();
+        for (int workers = 1; workers <= MAX_WORKERS; workers++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            int tiles = renderTiles(workers);
+            long nanos = SystemClock.elapsedRealtimeNanos() - start;
+            report.append(workers).append(" workers: ").append(tiles * 1000000000L / nanos).append(" tiles/s\n");
+        }
+        Log.i(TAG, report.toString());
+    }
+
+    /**
+     * Request all tiles of the document from a pool of given size and wait until they are posted back
+     *
+     * @return number of rendered tiles
+     */
+    private int renderTiles(int workers) throws Exception {
+        final PdfFile pdfFile = new PdfFile(ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY),
+                workers, FitPolicy.WIDTH, new Size(1080, 1920), null, true, 0, false, false,
+                false, 0, null, null);
+        final RenderingPool renderingPool = new RenderingPool();
+        try {
+            assertEquals("Renderers opened", workers, pdfFile.getPageRenderers().size());
+            final int[] tiles = new int[1];
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    pdfView.rendered.set(0);
+                    pdfView.pdfFile = pdfFile;
+                    renderingPool.start(pdfView, pdfFile);
+                    tiles[0] = requestTiles(renderingPool);
+                }
+            });
+            long deadline = SystemClock.uptimeMillis() + TIMEOUT;
+            while (pdfView.rendered.get() < tiles[0] && SystemClock.uptimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals("Rendered tiles", tiles[0], pdfView.rendered.get());
+            return tiles[0];
+        } finally {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    renderingPool.quit();
+                    pdfView.pdfFile = null;
+                }
+            });
+            pdfFile.dispose();
+        }
+    }
+
+    /**
+     * Request all tiles as visible in one plan, they're rendered from the top of the document
+     *
+     * @return number of requested tiles
+     */
+    private int requestTiles(RenderingPool renderingPool) {
+        float partSize = Constants.PART_SIZE;
+        float pageWidth = 612 * SCALE;
+        float pageHeight = 792 * SCALE;
+        int cols = MathUtils.ceil(pageWidth / partSize);
+        int rows = MathUtils.ceil(pageHeight / partSize);
+        int cacheOrder = 0;
+        RectF document = new RectF(0, 0, 612, PAGES * 792);
+        renderingPool.beginPlan(document, document, new RectF(), 0, 0);
+        for (int page = 0; page < PAGES; page++) {
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    RectF bounds = new RectF(col * partSize / pageWidth, row * partSize / pageHeight,
+                            Math.min(1, (col + 1) * partSize / pageWidth),
+                            Math.min(1, (row + 1) * partSize / pageHeight));
+                    renderingPool.addRenderingTask(page, bounds.width() * pageWidth, bounds.height() * pageHeight,
+                            bounds, false, cacheOrder++, true, false, RenderingTask.PRIORITY_VISIBLE,
+                            SCALE, new RectF(bounds.left * 612, (page + bounds.top) * 792,
+                                    bounds.right * 612, (page + bounds.bottom) * 792),
+                            CacheManager.partKey(page, SCALE, row, col));
+                }
+            }
+        }
+        renderingPool.endPlan();
+        return cacheOrder;
+    }
+
+    /**
+     * Counts rendered parts instead of caching them
+     */
+    private static class CountingPDFView extends PDFView {
+
+        final AtomicInteger rendered = new AtomicInteger();
+
+        CountingPDFView(Context context) {
+            super(context, null);
+        }
+
+        @Override
+        public void onBitmapRendered(PagePart part) {
+            part.getRenderedBitmap().recycle();
+            rendered.incrementAndGet();
+        }
+    }
+}
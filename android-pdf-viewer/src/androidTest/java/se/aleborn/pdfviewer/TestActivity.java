@@ -0,0 +1,18 @@
+package se.aleborn.pdfviewer;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+
+/**
+ * Empty activity hosting views of instrumented tests. Views have to be attached to a window,
+ * else parts posted by the rendering workers never reach them.
+ */
+public class TestActivity extends Activity {
+
+    static TestActivity launch(Instrumentation instrumentation) {
+        Intent intent = new Intent(instrumentation.getTargetContext(), TestActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        return (TestActivity) instrumentation.startActivitySync(intent);
+    }
+}
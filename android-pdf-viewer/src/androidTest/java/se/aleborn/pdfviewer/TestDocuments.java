@@ -0,0 +1,49 @@
+package se.aleborn.pdfviewer;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.pdf.PdfDocument;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Documents generated for instrumented tests, so no binary fixtures are needed
+ */
+final class TestDocuments {
+
+    private TestDocuments() {
+    }
+
+    /**
+     * Write a document of letter sized pages with lines of text into the cache directory
+     */
+    static File create(Context context, String name, int pages) throws IOException {
+        File file = new File(context.getCacheDir(), name);
+        PdfDocument document = new PdfDocument();
+        try {
+            Paint paint = new Paint();
+            paint.setTextSize(12);
+            for (int i = 0; i < pages; i++) {
+                PdfDocument.Page page = document.startPage(new PdfDocument.PageInfo.Builder(612, 792, i + 1).create());
+                Canvas canvas = page.getCanvas();
+                for (int line = 0; line < 50; line++) {
+                    canvas.drawText("Page " + (i + 1) + ", line " + (line + 1), 48, 48 + line * 14, paint);
+                }
+                document.finishPage(page);
+            }
+            OutputStream out = new FileOutputStream(file);
+            try {
+                document.writeTo(out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            document.close();
+        }
+        return file;
+    }
+}
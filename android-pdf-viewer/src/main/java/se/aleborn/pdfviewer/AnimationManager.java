@@ -85,6 +85,7 @@ class AnimationManager {
         stopAll();
         flinging = true;
         scroller.fling(startX, startY, velocityX, velocityY, minX, maxX, minY, maxY);
+        pdfView.onFlingStart(scroller.getFinalX(), scroller.getFinalY());
     }
 
     public void startPageFlingAnimation(float targetOffset) {
@@ -102,7 +103,7 @@ class AnimationManager {
             pdfView.loadPageByOffset();
         } else if (flinging) { // fling finished
             flinging = false;
-            pdfView.loadPages();
+            pdfView.onFlingEnd();
             hideHandle();
             pdfView.performPageSnap();
         }
@@ -117,6 +118,9 @@ class AnimationManager {
     }
 
     public void stopFling() {
+        if (flinging) {
+            pdfView.onFlingCancelled();
+        }
         flinging = false;
         scroller.forceFinished(true);
     }
@@ -125,6 +129,13 @@ class AnimationManager {
         return flinging || pageFlinging;
     }
 
+    /**
+     * @return current velocity of the fling in pixels per second, 0 if not flinging
+     */
+    float getFlingVelocity() {
+        return flinging ? scroller.getCurrVelocity() : 0;
+    }
+
     class XAnimation extends AnimatorListenerAdapter implements AnimatorUpdateListener {
 
         @Override
@@ -0,0 +1,163 @@
+package se.aleborn.pdfviewer;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import se.aleborn.pdfviewer.util.Constants;
+import se.aleborn.pdfviewer.util.MathUtils;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps bitmaps evicted from {@link CacheManager} so new parts can be rendered into them
+ * instead of allocating new ones. Bitmaps are bucketed by size and config, buckets
+ * which weren't used for the longest time are trimmed first when the pool is full.
+ */
+class BitmapPool {
+
+    private final LinkedHashMap<Long, ArrayDeque<Bitmap>> buckets = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long maxBytes;
+
+    private long currentBytes = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get a bitmap of given size and config, reused from the pool if possible.
+     * Reused bitmaps are cleared.
+     *
+     * @throws IllegalArgumentException if bitmap can't be created
+     */
+    Bitmap acquire(int width, int height, Bitmap.Config config) {
+        synchronized (this) {
+            ArrayDeque<Bitmap> bucket = buckets.get(key(width, height, config));
+            Bitmap bitmap = bucket != null ? bucket.poll() : null;
+            if (bitmap != null) {
+                hits++;
+                currentBytes -= bitmap.getAllocationByteCount();
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            }
+            misses++;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Return bitmap which is not used anymore to the pool, it's recycled if it doesn't fit
+     */
+    synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        trimToSize(maxBytes - size);
+
+        long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets.put(key, bucket);
+        }
+        bucket.push(bitmap);
+        currentBytes += size;
+    }
+
+    /**
+     * Recycle pooled bitmaps until the pool takes no more than given size
+     */
+    synchronized void trimToSize(long bytes) {
+        Iterator<Map.Entry<Long, ArrayDeque<Bitmap>>> iterator = buckets.entrySet().iterator();
+        while (currentBytes > bytes && iterator.hasNext()) {
+            ArrayDeque<Bitmap> bucket = iterator.next().getValue();
+            while (currentBytes > bytes && !bucket.isEmpty()) {
+                Bitmap bitmap = bucket.pollLast();
+                currentBytes -= bitmap.getAllocationByteCount();
+                bitmap.recycle();
+            }
+            if (bucket.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Trim the pool according to a level passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(getMaxBytes() / 2);
+        }
+    }
+
+    void clear() {
+        trimToSize(0);
+    }
+
+    synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return side of bitmaps parts are rendered into, smaller edge parts are padded to it
+     * so all parts of a quality share one bucket
+     */
+    static int getPartBitmapSize() {
+        return MathUtils.ceil(Constants.PART_SIZE);
+    }
+
+    /**
+     * @return bytes allocated by a bitmap of given size and config, as reported by
+     * {@link Bitmap#getAllocationByteCount()} which the pool and {@link CacheManager} charge
+     */
+    static long allocationBytes(int width, int height, Bitmap.Config config) {
+        int bytesPerPixel;
+        if (config == Bitmap.Config.ALPHA_8) {
+            bytesPerPixel = 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            bytesPerPixel = 2;
+        } else {
+            bytesPerPixel = 4;
+        }
+        return (long) width * height * bytesPerPixel;
+    }
+
+    private static long key(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 8) | (config != null ? config.ordinal() : 0xFF);
+    }
+}
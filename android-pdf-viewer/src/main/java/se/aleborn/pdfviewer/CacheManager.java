@@ -15,68 +15,410 @@
  */
 package se.aleborn.pdfviewer;
 
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.graphics.RectF;
-
+import android.util.SparseArray;
 
 import se.aleborn.pdfviewer.model.PagePart;
+import se.aleborn.pdfviewer.util.MathUtils;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
 
 import androidx.annotation.Nullable;
 
 import static se.aleborn.pdfviewer.util.Constants.Cache.CACHE_SIZE;
-import static se.aleborn.pdfviewer.util.Constants.Cache.THUMBNAILS_CACHE_SIZE;
 
+/**
+ * Keeps rendered parts in memory.
+ * <p>
+ * Parts are indexed by a key packed from page, zoom level, row and column of the tile grid,
+ * see {@link #partKey(int, float, int, int)}, in a hash table with an intrusive LRU list,
+ * so looking up, promoting and evicting a part takes constant time. Parts requested by the current
+ * set of {@link PagesLoader} are the active ones, the others are passive and are evicted first.
+ * <p>
+ * Parts in the LRU list are also linked in a list of their page, in the same order, so drawing
+ * walks only parts of visible pages, however many parts are cached.
+ * <p>
+ * Parts and thumbnails are limited by the bytes allocated by their bitmaps, with separate budgets.
+ * Page composites of {@link PageCompositor} are charged to the budget of parts.
+ */
 class CacheManager {
 
-    private final PriorityQueue<PagePart> passiveCache;
+    /** Initial size of the hash table, a power of 2 */
+    private static final int MIN_TABLE_SIZE = Integer.highestOneBit(Math.max(CACHE_SIZE, 8)) * 4;
+
+    /** Hash table, doubled when it's more than 3/4 full, so chains stay short however many parts fit the budget */
+    private Entry[] table = new Entry[MIN_TABLE_SIZE];
+
+    /** Number of entries in the hash table, including pinned parts */
+    private int entryCount = 0;
+
+    /** Head of the LRU list is evicted first, tail is the most recently requested part */
+    private Entry lruHead, lruTail;
+
+    /** Bytes allocated by bitmaps of cached parts, including pinned ones */
+    private long tileBytes = 0;
+    private long maxTileBytes;
+
+    /** Bytes allocated by bitmaps of page composites, they are owned by {@link PageCompositor} */
+    private long compositeBytes = 0;
 
-    private final PriorityQueue<PagePart> activeCache;
+    /** Bytes allocated by bitmaps of thumbnails */
+    private long thumbnailBytes = 0;
+    private long maxThumbnailBytes;
+
+    /** Current set, parts requested in it are active */
+    private int generation = 0;
+
+    /** Parts of each page in LRU order, by page */
+    private final SparseArray<PageList> pageLists = new SparseArray<>();
+
+    /** Parts of visible pages in draw order, reused by every call of {@link #getPageParts(int, int)} */
+    private final List<PagePart> visibleParts = new ArrayList<>();
 
     private final List<PagePart> thumbnails;
 
+    /** Parts visible when a pinch started, they aren't evicted until they're unpinned */
+    private final List<PagePart> pinnedParts = new ArrayList<>();
+
+    /** Low resolution thumbnails loaded from {@link ThumbnailStore} when the document is opened, by page */
+    private final SparseArray<PagePart> placeholders = new SparseArray<>();
+
     private final Object passiveActiveLock = new Object();
 
-    private final PagePartComparator orderComparator = new PagePartComparator();
+    /** Bitmaps of evicted parts go back to the pool */
+    private final BitmapPool bitmapPool;
+
+    /** Budget shared with caches of other views, null if this cache has its own budget */
+    private SharedTileCache sharedCache;
 
-    public CacheManager() {
-        activeCache = new PriorityQueue<>(CACHE_SIZE, orderComparator);
-        passiveCache = new PriorityQueue<>(CACHE_SIZE, orderComparator);
+    /** Content of a part copied by {@link #drawPart(long, Canvas, Rect)}, guarded by passiveActiveLock */
+    private final Rect copySrcRect = new Rect();
+
+    public CacheManager(BitmapPool bitmapPool, long maxTileBytes, long maxThumbnailBytes) {
+        this.bitmapPool = bitmapPool;
+        this.maxTileBytes = maxTileBytes;
+        this.maxThumbnailBytes = maxThumbnailBytes;
         thumbnails = new ArrayList<>();
     }
 
+    /**
+     * @param fraction part of the app's memory class
+     * @return default size of a cache in bytes
+     */
+    static long defaultSize(Context context, float fraction) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = activityManager != null ? activityManager.getMemoryClass() : 64;
+        return (long) (memoryClass * 1024L * 1024L * fraction);
+    }
+
+    /**
+     * Change budgets of parts and thumbnails, evicting what doesn't fit
+     */
+    public void setMaxBytes(long maxTileBytes, long maxThumbnailBytes) {
+        synchronized (passiveActiveLock) {
+            this.maxTileBytes = maxTileBytes;
+            makeAFreeSpace(0);
+        }
+        makeSharedSpace(0);
+        synchronized (thumbnails) {
+            this.maxThumbnailBytes = maxThumbnailBytes;
+            trimThumbnails(0);
+        }
+    }
+
+    /**
+     * Share the budget and full quality parts with other views, or use own budget again if null
+     */
+    public void setSharedCache(@Nullable SharedTileCache sharedCache) {
+        synchronized (passiveActiveLock) {
+            if (this.sharedCache != null) {
+                this.sharedCache.unregister(this);
+            }
+            this.sharedCache = sharedCache;
+            if (sharedCache != null) {
+                sharedCache.register(this);
+            }
+        }
+    }
+
+    /**
+     * @return maximum bytes of cached parts, a fair share of the shared budget if it's used
+     */
+    public long getMaxTileBytes() {
+        synchronized (passiveActiveLock) {
+            return sharedCache != null ? sharedCache.getFairShare() : maxTileBytes;
+        }
+    }
+
+    public long getMaxThumbnailBytes() {
+        synchronized (thumbnails) {
+            return maxThumbnailBytes;
+        }
+    }
+
+    public long getTileBytes() {
+        synchronized (passiveActiveLock) {
+            return tileBytes + compositeBytes;
+        }
+    }
+
+    public long getThumbnailBytes() {
+        synchronized (thumbnails) {
+            return thumbnailBytes;
+        }
+    }
+
+    /**
+     * @return bytes charged for a rendered part of given quality
+     */
+    static long estimatePartBytes(boolean bestQuality) {
+        int size = BitmapPool.getPartBitmapSize();
+        return BitmapPool.allocationBytes(size, size, bestQuality ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
+    }
+
+    private static long bytes(PagePart part) {
+        Bitmap bitmap = part.getRenderedBitmap();
+        return bitmap != null && !bitmap.isRecycled() ? bitmap.getAllocationByteCount() : 0;
+    }
+
+    /** Range of zoom levels distinguished by keys of parts, in steps of the minimum */
+    static final float MIN_TILE_ZOOM = 1f / 256;
+    static final float MAX_TILE_ZOOM = 255f;
+
+    /**
+     * @return code of the zoom level in a key of the cache, 1 to 0xFFFF for levels in the supported range
+     */
+    static int zoomCode(float zoom) {
+        return Math.round(MathUtils.limit(zoom, MIN_TILE_ZOOM, MAX_TILE_ZOOM) * 256);
+    }
+
+    /**
+     * Pack page, zoom level, row and column of a tile into a key of the cache,
+     * using 20 bits for the page, 16 for the zoom level and 14 for each of row and column
+     *
+     * @param zoom zoom level the tile is rendered for, between {@link #MIN_TILE_ZOOM} and {@link #MAX_TILE_ZOOM}
+     */
+    static long partKey(int page, float zoom, int row, int col) {
+        long zoomCode = zoomCode(zoom);
+        return ((long) (page & 0xFFFFF) << 44) | (zoomCode << 28) | ((long) (row & 0x3FFF) << 14) | (col & 0x3FFF);
+    }
+
+    /**
+     * Cache the part, replacing the draft of the same part
+     */
     public void cachePart(PagePart part) {
+        makeSharedSpace(bytes(part));
         synchronized (passiveActiveLock) {
+            Entry cached = get(part.getKey());
+            if (cached != null) {
+                if (part.isDraft() && !cached.part.isDraft()) {
+                    bitmapPool.release(part.getRenderedBitmap());
+                    return;
+                }
+                if (cached.pinned) {
+                    pinnedParts.remove(cached.part);
+                    cached.pinned = false;
+                } else {
+                    unlink(cached);
+                }
+                tileBytes -= bytes(cached.part);
+                unshare(cached.part);
+                bitmapPool.release(cached.part.getRenderedBitmap());
+                cached.part = part;
+            } else {
+                cached = new Entry(part.getKey(), part);
+                put(cached);
+            }
             // If cache too big, remove and recycle
-            makeAFreeSpace();
-
-            // Then add part
-            activeCache.offer(part);
+            makeAFreeSpace(bytes(part));
+            tileBytes += bytes(part);
+            cached.generation = generation;
+            linkLast(cached);
+            if (sharedCache != null && part.getSharedKey() != null && !part.isDraft()) {
+                sharedCache.put(part.getSharedKey(), part);
+            }
         }
     }
 
+    /**
+     * Start a new set, all cached parts become passive
+     */
     public void makeANewSet() {
         synchronized (passiveActiveLock) {
-            passiveCache.addAll(activeCache);
-            activeCache.clear();
+            generation++;
+        }
+    }
+
+    /**
+     * Evict least recently requested parts until given number of bytes fits in the budget,
+     * unless the budget is shared, see {@link #makeSharedSpace(long)}
+     */
+    private void makeAFreeSpace(long bytes) {
+        if (sharedCache != null) {
+            return;
+        }
+        while (tileBytes + compositeBytes + bytes > maxTileBytes && lruHead != null) {
+            evict(lruHead);
+        }
+    }
+
+    /**
+     * Charge a page composite to the budget of parts before it's created, evicting passive parts
+     * to make room. Active parts are never evicted, as the composite is merged from them.
+     *
+     * @return false if the composite doesn't fit, it mustn't be created then
+     */
+    boolean chargeComposite(long bytes) {
+        synchronized (passiveActiveLock) {
+            long budget = sharedCache != null ? sharedCache.getFairShare() : maxTileBytes;
+            // passive parts are at the head of the LRU list
+            while (tileBytes + compositeBytes + bytes > budget && lruHead != null && lruHead.generation != generation) {
+                evict(lruHead);
+            }
+            if (tileBytes + compositeBytes + bytes > budget) {
+                return false;
+            }
+            compositeBytes += bytes;
+            return true;
+        }
+    }
+
+    /**
+     * Release the charge of a composite which has been recycled or couldn't be created
+     */
+    void releaseComposite(long bytes) {
+        synchronized (passiveActiveLock) {
+            compositeBytes -= bytes;
+        }
+    }
+
+    /**
+     * Make given number of bytes fit in the shared budget, if it's used. Must be called without holding
+     * the lock of this cache, as the shared cache evicts parts of other caches, which take their own locks.
+     */
+    private void makeSharedSpace(long bytes) {
+        SharedTileCache sharedCache;
+        synchronized (passiveActiveLock) {
+            sharedCache = this.sharedCache;
+        }
+        if (sharedCache != null) {
+            sharedCache.makeSpace(bytes);
         }
     }
 
-    private void makeAFreeSpace() {
+    /**
+     * Evict the least recently requested part, used by {@link SharedTileCache}
+     *
+     * @return false if there is no part to evict
+     */
+    boolean evictLeastRecent() {
         synchronized (passiveActiveLock) {
-            while ((activeCache.size() + passiveCache.size()) >= CACHE_SIZE &&
-                    !passiveCache.isEmpty()) {
-                PagePart part = passiveCache.poll();
-                part.getRenderedBitmap().recycle();
+            if (lruHead == null) {
+                return false;
             }
+            evict(lruHead);
+            return true;
+        }
+    }
+
+    boolean hasEvictableParts() {
+        synchronized (passiveActiveLock) {
+            return lruHead != null;
+        }
+    }
 
-            while ((activeCache.size() + passiveCache.size()) >= CACHE_SIZE &&
-                    !activeCache.isEmpty()) {
-                activeCache.poll().getRenderedBitmap().recycle();
+    /**
+     * Stop sharing the part with other views before its bitmap is released
+     */
+    private void unshare(PagePart part) {
+        if (sharedCache != null && part.getSharedKey() != null) {
+            sharedCache.remove(part.getSharedKey(), part);
+        }
+    }
+
+    private void evict(Entry entry) {
+        unlink(entry);
+        remove(entry);
+        tileBytes -= bytes(entry.part);
+        unshare(entry.part);
+        bitmapPool.release(entry.part.getRenderedBitmap());
+    }
+
+    /**
+     * Evict passive parts, recycling their bitmaps instead of pooling them
+     */
+    public void trimPassiveParts() {
+        synchronized (passiveActiveLock) {
+            // passive parts are at the head of the LRU list
+            while (lruHead != null && lruHead.generation != generation) {
+                Entry entry = lruHead;
+                unlink(entry);
+                remove(entry);
+                tileBytes -= bytes(entry.part);
+                unshare(entry.part);
+                entry.part.getRenderedBitmap().recycle();
+            }
+        }
+    }
+
+    /**
+     * Evict parts, including pinned ones, which aren't kept by the filter, recycling their bitmaps
+     */
+    public void trimParts(PartFilter filter) {
+        synchronized (passiveActiveLock) {
+            Entry entry = lruHead;
+            while (entry != null) {
+                Entry next = entry.next;
+                if (!filter.keep(entry.part)) {
+                    unlink(entry);
+                    remove(entry);
+                    tileBytes -= bytes(entry.part);
+                    unshare(entry.part);
+                    entry.part.getRenderedBitmap().recycle();
+                }
+                entry = next;
+            }
+            for (int i = pinnedParts.size() - 1; i >= 0; i--) {
+                PagePart part = pinnedParts.get(i);
+                if (!filter.keep(part)) {
+                    pinnedParts.remove(i);
+                    remove(get(part.getKey()));
+                    tileBytes -= bytes(part);
+                    unshare(part);
+                    part.getRenderedBitmap().recycle();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evict thumbnails and placeholders which aren't kept by the filter, recycling their bitmaps
+     */
+    public void trimThumbnails(PartFilter filter) {
+        synchronized (thumbnails) {
+            for (int i = thumbnails.size() - 1; i >= 0; i--) {
+                PagePart thumbnail = thumbnails.get(i);
+                if (!filter.keep(thumbnail)) {
+                    thumbnails.remove(i);
+                    thumbnailBytes -= bytes(thumbnail);
+                    thumbnail.getRenderedBitmap().recycle();
+                }
+            }
+        }
+        synchronized (placeholders) {
+            for (int i = placeholders.size() - 1; i >= 0; i--) {
+                PagePart placeholder = placeholders.valueAt(i);
+                if (!filter.keep(placeholder)) {
+                    placeholders.removeAt(i);
+                    placeholder.getRenderedBitmap().recycle();
+                }
             }
         }
     }
@@ -84,9 +426,7 @@ class CacheManager {
     public void cacheThumbnail(PagePart part) {
         synchronized (thumbnails) {
             // If cache too big, remove and recycle
-            while (thumbnails.size() >= THUMBNAILS_CACHE_SIZE) {
-                thumbnails.remove(0).getRenderedBitmap().recycle();
-            }
+            trimThumbnails(bytes(part));
 
             // Then add thumbnail
             addWithoutDuplicates(thumbnails, part);
@@ -94,19 +434,143 @@ class CacheManager {
 
     }
 
-    public boolean upPartIfContained(int page, RectF pageRelativeBounds, int toOrder) {
-        PagePart fakePart = new PagePart(page, null, pageRelativeBounds, false, 0);
+    /**
+     * Evict oldest thumbnails until given number of bytes fits in the budget
+     */
+    private void trimThumbnails(long bytes) {
+        while (thumbnailBytes + bytes > maxThumbnailBytes && !thumbnails.isEmpty()) {
+            PagePart thumbnail = thumbnails.remove(0);
+            thumbnailBytes -= bytes(thumbnail);
+            bitmapPool.release(thumbnail.getRenderedBitmap());
+        }
+    }
+
+    /**
+     * Replace placeholders, they are kept until the cache is recycled
+     */
+    public void setPlaceholders(List<PagePart> parts) {
+        synchronized (placeholders) {
+            recyclePlaceholders();
+            for (PagePart part : parts) {
+                placeholders.put(part.getPage(), part);
+            }
+        }
+    }
+
+    /**
+     * @return placeholder of the page, or null
+     */
+    @Nullable
+    public PagePart getPlaceholder(int page) {
+        synchronized (placeholders) {
+            return placeholders.get(page);
+        }
+    }
+
+    private void recyclePlaceholders() {
+        for (int i = 0; i < placeholders.size(); i++) {
+            bitmapPool.release(placeholders.valueAt(i).getRenderedBitmap());
+        }
+        placeholders.clear();
+    }
+
+    /**
+     * Make the part active with given order, if it's cached
+     *
+     * @param key key of the part, see {@link #partKey(int, float, int, int)}
+     * @return true if the part is cached in full quality
+     */
+    public boolean upPartIfContained(long key, int toOrder) {
+        synchronized (passiveActiveLock) {
+            Entry found = get(key);
+            if (found == null) {
+                return false;
+            }
+            if (found.pinned) {
+                pinnedParts.remove(found.part);
+                found.pinned = false;
+            } else {
+                unlink(found);
+            }
+            found.part.setCacheOrder(toOrder);
+            found.generation = generation;
+            linkLast(found);
+            return !found.part.isDraft();
+        }
+    }
+
+    /**
+     * @return true if the part is cached in full quality
+     */
+    public boolean containsPart(long key) {
+        synchronized (passiveActiveLock) {
+            Entry found = get(key);
+            return found != null && !found.part.isDraft();
+        }
+    }
 
-        PagePart found;
+    /**
+     * Draw the part cached in full quality into the canvas, while it can't be evicted.
+     * Used by {@link PageCompositor} off the UI thread.
+     *
+     * @return false if the part isn't cached in full quality
+     */
+    boolean drawPart(long key, Canvas canvas, Rect dst) {
         synchronized (passiveActiveLock) {
-            if ((found = find(passiveCache, fakePart)) != null) {
-                passiveCache.remove(found);
-                found.setCacheOrder(toOrder);
-                activeCache.offer(found);
-                return true;
+            Entry found = get(key);
+            if (found == null || found.part.isDraft() || found.part.getRenderedBitmap().isRecycled()) {
+                return false;
             }
+            copySrcRect.set(0, 0, found.part.getWidth(), found.part.getHeight());
+            canvas.drawBitmap(found.part.getRenderedBitmap(), copySrcRect, dst, null);
+            return true;
+        }
+    }
 
-            return find(activeCache, fakePart) != null;
+    /**
+     * Move active parts to the pinned set, so they aren't evicted while parts for a new zoom are loaded
+     */
+    public void pinActiveParts() {
+        synchronized (passiveActiveLock) {
+            unpinParts();
+            // active parts are at the tail of the LRU list
+            Entry entry = lruTail;
+            while (entry != null && entry.generation == generation) {
+                Entry previous = entry.prev;
+                unlink(entry);
+                entry.pinned = true;
+                pinnedParts.add(0, entry.part);
+                entry = previous;
+            }
+        }
+    }
+
+    /**
+     * Return pinned parts to the passive set, evicting parts above the cache size
+     */
+    public void unpinParts() {
+        synchronized (passiveActiveLock) {
+            for (int i = pinnedParts.size() - 1; i >= 0; i--) {
+                Entry entry = get(pinnedParts.get(i).getKey());
+                entry.pinned = false;
+                entry.generation = generation - 1;
+                linkFirst(entry);
+            }
+            pinnedParts.clear();
+            makeAFreeSpace(0);
+        }
+        makeSharedSpace(0);
+    }
+
+    public boolean hasPinnedParts() {
+        synchronized (passiveActiveLock) {
+            return !pinnedParts.isEmpty();
+        }
+    }
+
+    public List<PagePart> getPinnedParts() {
+        synchronized (passiveActiveLock) {
+            return pinnedParts;
         }
     }
 
@@ -126,33 +590,37 @@ class CacheManager {
     }
 
     /**
-     * Add part if it doesn't exist, recycle bitmap otherwise
+     * Add part if it doesn't exist, return bitmap to the pool otherwise
      */
     private void addWithoutDuplicates(Collection<PagePart> collection, PagePart newPart) {
         for (PagePart part : collection) {
             if (part.equals(newPart)) {
-                newPart.getRenderedBitmap().recycle();
+                bitmapPool.release(newPart.getRenderedBitmap());
                 return;
             }
         }
         collection.add(newPart);
+        thumbnailBytes += bytes(newPart);
     }
 
-    @Nullable
-    private static PagePart find(PriorityQueue<PagePart> vector, PagePart fakePart) {
-        for (PagePart part : vector) {
-            if (part.equals(fakePart)) {
-                return part;
-            }
-        }
-        return null;
-    }
-
-    public List<PagePart> getPageParts() {
+    /**
+     * @return cached parts of pages in the range, page by page from the least to the most recently
+     * requested, so active parts are drawn over passive ones. Pinned parts aren't included.
+     * The list is reused, it's valid until the next call.
+     */
+    public List<PagePart> getPageParts(int firstPage, int lastPage) {
         synchronized (passiveActiveLock) {
-            List<PagePart> parts = new ArrayList<>(passiveCache);
-            parts.addAll(activeCache);
-            return parts;
+            visibleParts.clear();
+            for (int page = firstPage; page <= lastPage; page++) {
+                PageList pageList = pageLists.get(page);
+                if (pageList == null) {
+                    continue;
+                }
+                for (Entry entry = pageList.head; entry != null; entry = entry.pageNext) {
+                    visibleParts.add(entry.part);
+                }
+            }
+            return visibleParts;
         }
     }
 
@@ -164,31 +632,202 @@ class CacheManager {
 
     public void recycle() {
         synchronized (passiveActiveLock) {
-            for (PagePart part : passiveCache) {
-                part.getRenderedBitmap().recycle();
+            for (Entry entry = lruHead; entry != null; entry = entry.next) {
+                unshare(entry.part);
+                bitmapPool.release(entry.part.getRenderedBitmap());
             }
-            passiveCache.clear();
-            for (PagePart part : activeCache) {
-                part.getRenderedBitmap().recycle();
+            for (PagePart part : pinnedParts) {
+                unshare(part);
+                bitmapPool.release(part.getRenderedBitmap());
             }
-            activeCache.clear();
+            pinnedParts.clear();
+            table = new Entry[MIN_TABLE_SIZE];
+            entryCount = 0;
+            lruHead = lruTail = null;
+            tileBytes = 0;
+            pageLists.clear();
+            visibleParts.clear();
+            setSharedCache(null);
         }
         synchronized (thumbnails) {
             for (PagePart part : thumbnails) {
-                part.getRenderedBitmap().recycle();
+                bitmapPool.release(part.getRenderedBitmap());
             }
             thumbnails.clear();
+            thumbnailBytes = 0;
+        }
+        synchronized (placeholders) {
+            recyclePlaceholders();
         }
     }
 
-    class PagePartComparator implements Comparator<PagePart> {
-        @Override
-        public int compare(PagePart part1, PagePart part2) {
-            if (part1.getCacheOrder() == part2.getCacheOrder()) {
-                return 0;
+    private static int index(long key, int tableSize) {
+        int hash = (int) (key ^ (key >>> 32));
+        hash ^= (hash >>> 16);
+        return hash & (tableSize - 1);
+    }
+
+    private int index(long key) {
+        return index(key, table.length);
+    }
+
+    @Nullable
+    private Entry get(long key) {
+        for (Entry entry = table[index(key)]; entry != null; entry = entry.hashNext) {
+            if (entry.key == key) {
+                return entry;
             }
-            return part1.getCacheOrder() > part2.getCacheOrder() ? 1 : -1;
         }
+        return null;
+    }
+
+    private void put(Entry entry) {
+        if (entryCount + 1 > table.length / 4 * 3) {
+            resize(table.length * 2);
+        }
+        int index = index(entry.key);
+        entry.hashNext = table[index];
+        table[index] = entry;
+        entryCount++;
     }
 
+    private void resize(int tableSize) {
+        Entry[] resized = new Entry[tableSize];
+        for (Entry bucket : table) {
+            Entry entry = bucket;
+            while (entry != null) {
+                Entry next = entry.hashNext;
+                int index = index(entry.key, tableSize);
+                entry.hashNext = resized[index];
+                resized[index] = entry;
+                entry = next;
+            }
+        }
+        table = resized;
+    }
+
+    private void remove(Entry entry) {
+        int index = index(entry.key);
+        Entry previous = null;
+        for (Entry current = table[index]; current != null; current = current.hashNext) {
+            if (current == entry) {
+                if (previous == null) {
+                    table[index] = current.hashNext;
+                } else {
+                    previous.hashNext = current.hashNext;
+                }
+                entryCount--;
+                return;
+            }
+            previous = current;
+        }
+    }
+
+    private void linkLast(Entry entry) {
+        entry.prev = lruTail;
+        entry.next = null;
+        if (lruTail != null) {
+            lruTail.next = entry;
+        } else {
+            lruHead = entry;
+        }
+        lruTail = entry;
+
+        PageList pageList = getPageList(entry);
+        entry.pagePrev = pageList.tail;
+        entry.pageNext = null;
+        if (pageList.tail != null) {
+            pageList.tail.pageNext = entry;
+        } else {
+            pageList.head = entry;
+        }
+        pageList.tail = entry;
+    }
+
+    private void linkFirst(Entry entry) {
+        entry.prev = null;
+        entry.next = lruHead;
+        if (lruHead != null) {
+            lruHead.prev = entry;
+        } else {
+            lruTail = entry;
+        }
+        lruHead = entry;
+
+        PageList pageList = getPageList(entry);
+        entry.pagePrev = null;
+        entry.pageNext = pageList.head;
+        if (pageList.head != null) {
+            pageList.head.pagePrev = entry;
+        } else {
+            pageList.tail = entry;
+        }
+        pageList.head = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            lruHead = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else {
+            lruTail = entry.prev;
+        }
+        entry.prev = entry.next = null;
+
+        PageList pageList = getPageList(entry);
+        if (entry.pagePrev != null) {
+            entry.pagePrev.pageNext = entry.pageNext;
+        } else {
+            pageList.head = entry.pageNext;
+        }
+        if (entry.pageNext != null) {
+            entry.pageNext.pagePrev = entry.pagePrev;
+        } else {
+            pageList.tail = entry.pagePrev;
+        }
+        entry.pagePrev = entry.pageNext = null;
+    }
+
+    private PageList getPageList(Entry entry) {
+        int page = entry.part.getPage();
+        PageList pageList = pageLists.get(page);
+        if (pageList == null) {
+            pageList = new PageList();
+            pageLists.put(page, pageList);
+        }
+        return pageList;
+    }
+
+    /** Decides which parts are kept when memory is trimmed */
+    interface PartFilter {
+        boolean keep(PagePart part);
+    }
+
+    /** Cached part, linked both in a bucket of the hash table and in the LRU list */
+    private static class Entry {
+        final long key;
+        PagePart part;
+        Entry hashNext;
+        Entry prev, next;
+        /** Neighbours in the list of the part's page */
+        Entry pagePrev, pageNext;
+        /** Set the part was last requested in */
+        int generation;
+        /** True if the part is pinned, it's not in the LRU list then */
+        boolean pinned;
+
+        Entry(long key, PagePart part) {
+            this.key = key;
+            this.part = part;
+        }
+    }
+
+    /** Parts of one page, linked through {@link Entry#pageNext} */
+    private static class PageList {
+        Entry head, tail;
+    }
 }
@@ -17,11 +17,17 @@ package se.aleborn.pdfviewer;
 
 import android.graphics.pdf.PdfRenderer;
 import android.os.AsyncTask;
+import android.os.ParcelFileDescriptor;
 
+import se.aleborn.pdfviewer.model.PagePart;
 import se.aleborn.pdfviewer.source.DocumentSource;
+import se.aleborn.pdfviewer.source.FileDescriptorSource;
 import se.aleborn.pdfviewer.model.Size;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.List;
 
 class DecodingAsyncTask extends AsyncTask<Void, Void, Throwable> {
 
@@ -33,6 +39,7 @@ class DecodingAsyncTask extends AsyncTask<Void, Void, Throwable> {
     private DocumentSource docSource;
     private int[] userPages;
     private PdfFile pdfFile;
+    private List<PagePart> placeholders = Collections.emptyList();
 
     DecodingAsyncTask(DocumentSource docSource, int[] userPages, PDFView pdfView) {
         this.docSource = docSource;
@@ -46,10 +53,31 @@ class DecodingAsyncTask extends AsyncTask<Void, Void, Throwable> {
         try {
             PDFView pdfView = pdfViewReference.get();
             if (pdfView != null) {
-                PdfRenderer renderer  = docSource.createRenderer(pdfView.getContext());
-                pdfFile = new PdfFile(renderer, pdfView.getPageFitPolicy(), getViewSize(pdfView),
-                        userPages, pdfView.isSwipeVertical(), pdfView.getSpacingPx(), pdfView.isAutoSpacingEnabled(),
-                        pdfView.isFitEachPage());
+                if (!(docSource instanceof FileDescriptorSource)) {
+                    decodeRenderer(pdfView);
+                    return null;
+                }
+                ParcelFileDescriptor fileDescriptor =
+                        ((FileDescriptorSource) docSource).createFileDescriptor(pdfView.getContext());
+                try {
+                    DocumentFingerprint fingerprint = null;
+                    if (pdfView.isPageSizeIndexEnabled() || pdfView.isDiskCacheEnabled()
+                            || pdfView.isThumbnailStoreEnabled() || pdfView.isSharedCacheEnabled()) {
+                        fingerprint = DocumentFingerprint.of(fileDescriptor);
+                    }
+                    pdfFile = new PdfFile(fileDescriptor, pdfView.getRenderWorkers(), pdfView.getPageFitPolicy(),
+                            getViewSize(pdfView), userPages, pdfView.isSwipeVertical(), pdfView.getSpacingPx(),
+                            pdfView.isAutoSpacingEnabled(), pdfView.isFitEachPage(),
+                            pdfView.isIncrementalLayout(), pdfView.getDefaultPage(), fingerprint,
+                            pdfView.isPageSizeIndexEnabled() ? pdfView.getContext().getCacheDir() : null);
+                } catch (Throwable t) {
+                    fileDescriptor.close();
+                    throw t;
+                }
+                ThumbnailStore thumbnailStore = pdfView.thumbnailStore;
+                if (thumbnailStore != null) {
+                    placeholders = thumbnailStore.loadPlaceholders(pdfFile, pdfView.getDefaultPage());
+                }
                 return null;
             } else {
                 return new NullPointerException("pdfView == null");
@@ -60,6 +88,24 @@ class DecodingAsyncTask extends AsyncTask<Void, Void, Throwable> {
         }
     }
 
+    /**
+     * Open the document of a source which only provides a renderer, it's rendered on a single worker
+     * and can't be identified, so nothing is cached on disk for it
+     */
+    @SuppressWarnings("deprecation")
+    private void decodeRenderer(PDFView pdfView) throws IOException {
+        PdfRenderer pdfRenderer = docSource.createRenderer(pdfView.getContext());
+        try {
+            pdfFile = new PdfFile(pdfRenderer, null, 1, pdfView.getPageFitPolicy(),
+                    getViewSize(pdfView), userPages, pdfView.isSwipeVertical(), pdfView.getSpacingPx(),
+                    pdfView.isAutoSpacingEnabled(), pdfView.isFitEachPage(),
+                    pdfView.isIncrementalLayout(), pdfView.getDefaultPage(), null, null);
+        } catch (Throwable t) {
+            pdfRenderer.close();
+            throw t;
+        }
+    }
+
     private Size getViewSize(PDFView pdfView) {
         return new Size(pdfView.getWidth(), pdfView.getHeight());
     }
@@ -67,13 +113,16 @@ class DecodingAsyncTask extends AsyncTask<Void, Void, Throwable> {
     @Override
     protected void onPostExecute(Throwable t) {
         PDFView pdfView = pdfViewReference.get();
+        if (pdfView == null || cancelled || t != null) {
+            release();
+        }
         if (pdfView != null) {
             if (t != null) {
                 pdfView.loadError(t);
                 return;
             }
             if (!cancelled) {
-                pdfView.loadComplete(pdfFile);
+                pdfView.loadComplete(pdfFile, placeholders);
             }
         }
     }
@@ -81,5 +130,20 @@ class DecodingAsyncTask extends AsyncTask<Void, Void, Throwable> {
     @Override
     protected void onCancelled() {
         cancelled = true;
+        release();
+    }
+
+    /**
+     * Close the renderers of a document which won't be shown and recycle its placeholders
+     */
+    private void release() {
+        if (pdfFile != null) {
+            pdfFile.dispose();
+            pdfFile = null;
+        }
+        for (PagePart placeholder : placeholders) {
+            placeholder.getRenderedBitmap().recycle();
+        }
+        placeholders = Collections.emptyList();
     }
 }
@@ -0,0 +1,367 @@
+package se.aleborn.pdfviewer;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+
+import se.aleborn.pdfviewer.util.Constants;
+import se.aleborn.pdfviewer.util.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Second level cache of rendered parts stored in the cache directory, shared by all views of the process.
+ * <p>
+ * Parts are keyed by {@link DocumentFingerprint}, page, zoom bucket and relative bounds, so they survive
+ * closing the document. Each file holds the content size followed by the part bitmap as PNG.
+ * Files are evicted in least recently used order when the cache exceeds its byte quota.
+ * <p>
+ * Reads happen on rendering threads, a hit is decoded into a pooled bitmap instead of being rendered.
+ * Writes are done by a single background thread on a copy of the rendered bitmap.
+ * <p>
+ * Thumbnails are kept by a separate instance with its own quota, see {@link ThumbnailStore}.
+ */
+class DiskTileCache {
+
+    private static final String TAG = DiskTileCache.class.getSimpleName();
+
+    /** Directory in the cache directory holding part files */
+    static final String DIRECTORY = "pdfviewer-tiles";
+
+    /** Directory in the cache directory holding thumbnail files */
+    static final String THUMBNAILS_DIRECTORY = "pdfviewer-thumbnails";
+
+    /** Number of zoom buckets per unit of zoom, parts rendered at zooms in one bucket are shared */
+    private static final int ZOOM_BUCKETS = 20;
+
+    /** Parts waiting to be written, more parts are dropped instead of copying their bitmaps */
+    private static final int MAX_PENDING_WRITES = 16;
+
+    private static DiskTileCache instance;
+
+    private static DiskTileCache thumbnailsInstance;
+
+    private final File directory;
+
+    /** Format of stored bitmaps, bitmaps are drawn on white before they are stored as JPEG */
+    private final Bitmap.CompressFormat format;
+
+    private long maxBytes;
+
+    /** Size of files by name, in access order */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private boolean initialized = false;
+
+    private long currentBytes = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private int pendingWrites = 0;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PDF tile writer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private DiskTileCache(File directory, Bitmap.CompressFormat format) {
+        this.directory = directory;
+        this.format = format;
+    }
+
+    /**
+     * @return cache of the process, stored in given cache directory and limited by
+     * {@link Constants.Cache#DISK_CACHE_SIZE}
+     */
+    static synchronized DiskTileCache get(File cacheDirectory) {
+        if (instance == null) {
+            instance = new DiskTileCache(new File(cacheDirectory, DIRECTORY), Bitmap.CompressFormat.PNG);
+        }
+        instance.setMaxBytes(Constants.Cache.DISK_CACHE_SIZE);
+        return instance;
+    }
+
+    /**
+     * @return thumbnail cache of the process, stored in given cache directory and limited by
+     * {@link Constants.Cache#THUMBNAIL_STORE_SIZE}
+     */
+    static synchronized DiskTileCache getThumbnails(File cacheDirectory) {
+        if (thumbnailsInstance == null) {
+            thumbnailsInstance = new DiskTileCache(new File(cacheDirectory, THUMBNAILS_DIRECTORY),
+                    Bitmap.CompressFormat.JPEG);
+        }
+        thumbnailsInstance.setMaxBytes(Constants.Cache.THUMBNAIL_STORE_SIZE);
+        return thumbnailsInstance;
+    }
+
+    /**
+     * @param docPage page of the PDF document
+     * @param bounds  bounds of the part relative to the page
+     * @return key of the part, usable as a file name
+     */
+    static String key(DocumentFingerprint fingerprint, int docPage, float zoom, RectF bounds, boolean bestQuality) {
+        return fingerprint.getKey() + '_' + docPage + '_' + Math.round(zoom * ZOOM_BUCKETS) + '_'
+                + Integer.toHexString(Float.floatToIntBits(bounds.left)) + '_'
+                + Integer.toHexString(Float.floatToIntBits(bounds.top)) + '_'
+                + Integer.toHexString(Float.floatToIntBits(bounds.right)) + '_'
+                + Integer.toHexString(Float.floatToIntBits(bounds.bottom))
+                + (bestQuality ? "_q" : "");
+    }
+
+    /**
+     * Decode stored part into given bitmap, it must have the size and config of the stored part
+     *
+     * @param contentRect set to the area of the bitmap covered by the part
+     * @return true if the part was found and decoded
+     */
+    boolean read(String key, Bitmap bitmap, Rect contentRect) {
+        synchronized (this) {
+            initialize();
+            if (entries.get(key) == null) {
+                misses++;
+                return false;
+            }
+        }
+        File file = new File(directory, key);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            int width = in.readInt();
+            int height = in.readInt();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            options.inBitmap = bitmap;
+            options.inPreferredConfig = bitmap.getConfig();
+            Bitmap decoded = BitmapFactory.decodeStream(in, null, options);
+            if (decoded != bitmap || width > bitmap.getWidth() || height > bitmap.getHeight()) {
+                throw new IOException("Stored part doesn't match the bitmap");
+            }
+            contentRect.set(0, 0, width, height);
+            file.setLastModified(System.currentTimeMillis());
+            synchronized (this) {
+                hits++;
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot read part " + key, e);
+            remove(key);
+            return false;
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Store a copy of the rendered part in the background
+     *
+     * @param bitmap        rendered part, it can be released right after this call
+     * @param contentWidth  width of the area of the bitmap covered by the part
+     * @param contentHeight height of the area of the bitmap covered by the part
+     * @param bitmapPool    pool the copy is taken from and returned to
+     */
+    void write(final String key, Bitmap bitmap, final int contentWidth, final int contentHeight,
+               final BitmapPool bitmapPool) {
+        synchronized (this) {
+            initialize();
+            if (pendingWrites >= MAX_PENDING_WRITES || entries.containsKey(key)) {
+                return;
+            }
+            pendingWrites++;
+        }
+        final Bitmap copy;
+        try {
+            if (format == Bitmap.CompressFormat.PNG) {
+                copy = bitmapPool.acquire(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            } else {
+                // no transparency in JPEG, page is drawn on white
+                copy = bitmapPool.acquire(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.RGB_565);
+                copy.eraseColor(Color.WHITE);
+            }
+            Canvas canvas = new Canvas(copy);
+            canvas.drawBitmap(bitmap, 0, 0, null);
+        } catch (IllegalArgumentException | OutOfMemoryError e) {
+            synchronized (this) {
+                pendingWrites--;
+            }
+            return;
+        }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store(key, copy, contentWidth, contentHeight);
+                } finally {
+                    bitmapPool.release(copy);
+                    synchronized (DiskTileCache.this) {
+                        pendingWrites--;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return keys of stored bitmaps starting with given prefix
+     */
+    synchronized List<String> getKeys(String prefix) {
+        initialize();
+        List<String> keys = new ArrayList<>();
+        for (String key : entries.keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Decode stored bitmap into a new immutable bitmap
+     *
+     * @param sampleSize the bitmap is subsampled by this factor
+     * @return decoded bitmap or null
+     */
+    Bitmap decode(String key, int sampleSize) {
+        File file = new File(directory, key);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            in.readInt();
+            in.readInt();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            return BitmapFactory.decodeStream(in, null, options);
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            Log.w(TAG, "Cannot decode " + key, e);
+            return null;
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        if (initialized) {
+            trimToSize(maxBytes);
+        }
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    private void store(String key, Bitmap bitmap, int contentWidth, int contentHeight) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File temp = new File(directory, key + ".tmp");
+        File file = new File(directory, key);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(contentWidth);
+            out.writeInt(contentHeight);
+            if (!bitmap.compress(format, format == Bitmap.CompressFormat.PNG ? 100 : 80, out)) {
+                throw new IOException("Cannot compress part");
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write part " + key, e);
+            temp.delete();
+            return;
+        } finally {
+            FileUtils.closeQuietly(out);
+        }
+        synchronized (this) {
+            initialize();
+            Long previous = entries.put(key, file.length());
+            currentBytes += file.length() - (previous != null ? previous : 0);
+            trimToSize(maxBytes);
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            currentBytes -= size;
+        }
+        new File(directory, key).delete();
+    }
+
+    private void trimToSize(long bytes) {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (currentBytes > bytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            new File(directory, entry.getKey()).delete();
+            currentBytes -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Read stored files once, least recently used first
+     */
+    private void initialize() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long modified1 = file1.lastModified();
+                long modified2 = file2.lastModified();
+                return modified1 < modified2 ? -1 : (modified1 == modified2 ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            entries.put(file.getName(), file.length());
+            currentBytes += file.length();
+        }
+        trimToSize(maxBytes);
+    }
+}
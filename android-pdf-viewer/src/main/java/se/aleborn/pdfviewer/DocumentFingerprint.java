@@ -0,0 +1,100 @@
+package se.aleborn.pdfviewer;
+
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import se.aleborn.pdfviewer.util.FileUtils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Cheap identity of a document, made of its size, modification time and a hash of a few sampled blocks.
+ * Used to key data cached on disk, so it's invalidated automatically when the document changes.
+ */
+class DocumentFingerprint {
+
+    /** Size of one sampled block, blocks are taken from the start, middle and end of the document */
+    private static final int SAMPLE_SIZE = 4096;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    final long size;
+
+    final long modificationTime;
+
+    final long sampleHash;
+
+    DocumentFingerprint(long size, long modificationTime, long sampleHash) {
+        this.size = size;
+        this.modificationTime = modificationTime;
+        this.sampleHash = sampleHash;
+    }
+
+    /**
+     * @return fingerprint of the document, or null if the descriptor isn't a seekable file
+     */
+    static DocumentFingerprint of(ParcelFileDescriptor fileDescriptor) {
+        long size = fileDescriptor.getStatSize();
+        if (size <= 0) {
+            return null;
+        }
+        ParcelFileDescriptor descriptor = null;
+        FileInputStream stream = null;
+        try {
+            descriptor = fileDescriptor.dup();
+            long modificationTime = Os.fstat(descriptor.getFileDescriptor()).st_mtime;
+            // the stream owns the duplicate, positional reads don't move the offset shared with renderers
+            stream = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+            descriptor = null;
+            FileChannel channel = stream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+            long hash = FNV_OFFSET_BASIS;
+            long[] positions = {0, Math.max(0, size / 2 - SAMPLE_SIZE / 2), Math.max(0, size - SAMPLE_SIZE)};
+            for (long position : positions) {
+                buffer.clear();
+                while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+                    // read the whole block
+                }
+                for (int i = 0; i < buffer.position(); i++) {
+                    hash = (hash ^ (buffer.get(i) & 0xff)) * FNV_PRIME;
+                }
+            }
+            return new DocumentFingerprint(size, modificationTime, hash);
+        } catch (IOException | ErrnoException | RuntimeException e) {
+            return null;
+        } finally {
+            FileUtils.closeQuietly(stream);
+            FileUtils.closeQuietly(descriptor);
+        }
+    }
+
+    /**
+     * @return key usable as a file name
+     */
+    String getKey() {
+        long hash = FNV_OFFSET_BASIS;
+        hash = (hash ^ size) * FNV_PRIME;
+        hash = (hash ^ modificationTime) * FNV_PRIME;
+        hash = (hash ^ sampleHash) * FNV_PRIME;
+        return Long.toHexString(hash);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof DocumentFingerprint)) {
+            return false;
+        }
+        DocumentFingerprint other = (DocumentFingerprint) obj;
+        return size == other.size && modificationTime == other.modificationTime && sampleHash == other.sampleHash;
+    }
+
+    @Override
+    public int hashCode() {
+        return getKey().hashCode();
+    }
+}
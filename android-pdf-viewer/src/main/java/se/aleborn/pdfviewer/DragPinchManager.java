@@ -43,6 +43,9 @@ class DragPinchManager implements GestureDetector.OnGestureListener, GestureDete
     private boolean scaling = false;
     private boolean enabled = false;
 
+    /** Time of the last scroll event, 0 if not scrolling */
+    private long lastScrollTime = 0;
+
     DragPinchManager(PDFView pdfView, AnimationManager animationManager) {
         this.pdfView = pdfView;
         this.animationManager = animationManager;
@@ -133,6 +136,7 @@ class DragPinchManager implements GestureDetector.OnGestureListener, GestureDete
     @Override
     public boolean onDown(MotionEvent e) {
         animationManager.stopFling();
+        lastScrollTime = 0;
         return true;
     }
 
@@ -149,6 +153,12 @@ class DragPinchManager implements GestureDetector.OnGestureListener, GestureDete
     @Override
     public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
         scrolling = true;
+        long time = e2.getEventTime();
+        if (lastScrollTime > 0 && time > lastScrollTime) {
+            float distance = pdfView.isSwipeVertical() ? distanceY : distanceX;
+            pdfView.setDragVelocity(Math.abs(distance) * 1000 / (time - lastScrollTime));
+        }
+        lastScrollTime = time;
         if (pdfView.isZooming() || pdfView.isSwipeEnabled()) {
             pdfView.moveRelativeTo(-distanceX, -distanceY);
         }
@@ -159,6 +169,8 @@ class DragPinchManager implements GestureDetector.OnGestureListener, GestureDete
     }
 
     private void onScrollEnd(MotionEvent event) {
+        lastScrollTime = 0;
+        pdfView.setDragVelocity(0);
         pdfView.loadPages();
         hideHandle();
         if (!animationManager.isFlinging()) {
@@ -246,12 +258,13 @@ class DragPinchManager implements GestureDetector.OnGestureListener, GestureDete
     @Override
     public boolean onScaleBegin(ScaleGestureDetector detector) {
         scaling = true;
+        pdfView.onScaleBegin();
         return true;
     }
 
     @Override
     public void onScaleEnd(ScaleGestureDetector detector) {
-        pdfView.loadPages();
+        pdfView.onScaleEnd();
         hideHandle();
         scaling = false;
     }
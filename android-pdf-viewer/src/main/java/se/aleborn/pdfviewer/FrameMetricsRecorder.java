@@ -0,0 +1,114 @@
+package se.aleborn.pdfviewer;
+
+import android.view.Choreographer;
+import android.view.Display;
+
+import se.aleborn.pdfviewer.model.FrameMetrics;
+import se.aleborn.pdfviewer.util.Constants;
+import se.aleborn.pdfviewer.util.RollingHistogram;
+
+/**
+ * Records timing of frames drawn by {@link PDFView} when frame metrics are enabled, used on the UI thread only.
+ * <p>
+ * Dropped frames are counted with a {@link Choreographer.FrameCallback} posted only while the view draws:
+ * a frame callback is posted from every drawn frame and the gap to the previous callback, in refresh
+ * intervals, tells how many frames were skipped. The chain stops once a frame passes without drawing,
+ * so an idle view isn't woken up for every frame.
+ */
+class FrameMetricsRecorder {
+
+    private final PDFView pdfView;
+
+    private final RollingHistogram drawTime = new RollingHistogram(Constants.FRAME_METRICS_WINDOW);
+    private final RollingHistogram partsDrawn = new RollingHistogram(Constants.FRAME_METRICS_WINDOW);
+    private final RollingHistogram partsCulled = new RollingHistogram(Constants.FRAME_METRICS_WINDOW);
+    private final RollingHistogram planTime = new RollingHistogram(Constants.FRAME_METRICS_WINDOW);
+
+    private long frames = 0;
+    private long droppedFrames = 0;
+
+    /** Time of the previous frame callback, 0 if the chain is stopped */
+    private long lastFrameTime = 0;
+    private long frameInterval = 0;
+    private boolean frameCallbackPosted = false;
+    private boolean drawnSinceFrame = false;
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameCallbackPosted = false;
+            if (lastFrameTime != 0) {
+                long skipped = (frameTimeNanos - lastFrameTime + frameInterval / 2) / frameInterval - 1;
+                if (skipped > 0) {
+                    droppedFrames += skipped;
+                }
+            }
+            if (drawnSinceFrame) {
+                drawnSinceFrame = false;
+                lastFrameTime = frameTimeNanos;
+                postFrameCallback();
+            } else {
+                lastFrameTime = 0;
+            }
+        }
+    };
+
+    FrameMetricsRecorder(PDFView pdfView) {
+        this.pdfView = pdfView;
+    }
+
+    /**
+     * Record a drawn frame
+     *
+     * @param duration time spent drawing in nanoseconds
+     */
+    void onFrameDrawn(long duration, int drawn, int culled) {
+        frames++;
+        drawTime.add(duration / 1000);
+        partsDrawn.add(drawn);
+        partsCulled.add(culled);
+        drawnSinceFrame = true;
+        if (!frameCallbackPosted) {
+            postFrameCallback();
+        }
+        if (frames % Constants.FRAME_METRICS_WINDOW == 0 && pdfView.callbacks.getOnFrameMetrics() != null) {
+            pdfView.callbacks.callOnFrameMetrics(getMetrics());
+        }
+    }
+
+    /**
+     * Record time of planning parts to load
+     *
+     * @param duration time spent in nanoseconds
+     */
+    void onPlan(long duration) {
+        planTime.add(duration / 1000);
+    }
+
+    private void postFrameCallback() {
+        if (frameInterval == 0) {
+            Display display = pdfView.getDisplay();
+            float refreshRate = display != null ? display.getRefreshRate() : 60f;
+            frameInterval = (long) (1000000000L / (refreshRate > 0 ? refreshRate : 60f));
+        }
+        frameCallbackPosted = true;
+        Choreographer.getInstance().postFrameCallback(frameCallback);
+    }
+
+    FrameMetrics getMetrics() {
+        return new FrameMetrics(frames, droppedFrames, drawTime.getPercentiles(), partsDrawn.getPercentiles(),
+                partsCulled.getPercentiles(), planTime.getPercentiles());
+    }
+
+    /**
+     * Stop counting dropped frames, recorded metrics are kept
+     */
+    void stop() {
+        if (frameCallbackPosted) {
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+            frameCallbackPosted = false;
+        }
+        lastFrameTime = 0;
+        drawnSinceFrame = false;
+    }
+}
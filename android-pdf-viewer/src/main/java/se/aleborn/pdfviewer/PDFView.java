@@ -15,7 +15,9 @@
  */
 package se.aleborn.pdfviewer;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
@@ -30,24 +32,29 @@ import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.AsyncTask;
-import android.os.Build;
-import android.os.HandlerThread;
+import android.os.Trace;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.view.Choreographer;
 import android.widget.RelativeLayout;
 
 import se.aleborn.pdfviewer.exception.PageRenderingException;
 import se.aleborn.pdfviewer.listener.Callbacks;
 import se.aleborn.pdfviewer.listener.OnDrawListener;
 import se.aleborn.pdfviewer.listener.OnErrorListener;
+import se.aleborn.pdfviewer.listener.OnFrameMetricsListener;
 import se.aleborn.pdfviewer.listener.OnLoadCompleteListener;
 import se.aleborn.pdfviewer.listener.OnLongPressListener;
 import se.aleborn.pdfviewer.listener.OnPageChangeListener;
 import se.aleborn.pdfviewer.listener.OnPageErrorListener;
 import se.aleborn.pdfviewer.listener.OnPageScrollListener;
 import se.aleborn.pdfviewer.listener.OnRenderListener;
+import se.aleborn.pdfviewer.listener.OnRenderMetricsListener;
 import se.aleborn.pdfviewer.listener.OnTapListener;
+import se.aleborn.pdfviewer.model.FrameMetrics;
 import se.aleborn.pdfviewer.model.PagePart;
+import se.aleborn.pdfviewer.model.RenderMetrics;
 import se.aleborn.pdfviewer.scroll.ScrollHandle;
 import se.aleborn.pdfviewer.source.AssetSource;
 import se.aleborn.pdfviewer.source.ByteArraySource;
@@ -112,6 +119,9 @@ public class PDFView extends RelativeLayout {
     /** Rendered parts go to the cache manager */
     CacheManager cacheManager;
 
+    /** Bitmaps evicted from the cache are reused for new parts */
+    BitmapPool bitmapPool;
+
     /** Animation manager manage all offset and zoom animation */
     private AnimationManager animationManager;
 
@@ -149,10 +159,14 @@ public class PDFView extends RelativeLayout {
     /** Async task used during the loading phase to decode a PDF document */
     private DecodingAsyncTask decodingAsyncTask;
 
-    /** The thread {@link #renderingHandler} will run on */
-    private HandlerThread renderingHandlerThread;
-    /** Handler always waiting in the background and rendering tasks */
-    RenderingHandler renderingHandler;
+    /** Async task measuring pages in the background when incremental layout is enabled */
+    private PageMeasuringAsyncTask pageMeasuringAsyncTask;
+
+    /** Rendering workers always waiting in the background and rendering tasks */
+    RenderingPool renderingPool;
+
+    /** Number of rendering workers, each one opens its own renderer */
+    private int renderWorkers = RenderingPool.defaultWorkerCount();
 
     private PagesLoader pagesLoader;
 
@@ -169,6 +183,71 @@ public class PDFView extends RelativeLayout {
 
     private boolean fitEachPage = false;
 
+    /** True if only pages around the default page are measured before the document is shown */
+    private boolean incrementalLayout = false;
+
+    /** True if page sizes are stored in the cache directory, so they don't have to be measured again */
+    private boolean pageSizeIndex = false;
+
+    /** Cache of rendered parts in the cache directory, null if disabled */
+    DiskTileCache diskTileCache;
+
+    /** Budget and parts shared with other views, null if disabled */
+    SharedTileCache sharedTileCache;
+
+    /** Thumbnails stored in the cache directory, null if disabled */
+    ThumbnailStore thumbnailStore;
+
+    /** True if fully visible pages are merged into one bitmap each while the view is idle */
+    private boolean compositing = false;
+
+    PageCompositor pageCompositor;
+
+    /** Bitmaps drawn by the frame being drawn and by the last drawn frame */
+    private int drawCalls = 0;
+    private int lastDrawCalls = 0;
+
+    /** Parts skipped by the frame being drawn because they were off the screen */
+    private int culledParts = 0;
+
+    /** Records timing of frames, null if frame metrics are disabled */
+    private FrameMetricsRecorder frameMetrics;
+
+    /** Records latency of rendering stages of tiles, null if render metrics are disabled */
+    private RenderMetricsRecorder renderMetrics;
+
+    /** True if tiles visible when a pinch starts are scaled during the pinch instead of rendering new ones */
+    private boolean scalePreview = false;
+
+    /** True during a pinch in scale preview mode */
+    private boolean scalePreviewActive = false;
+
+    /** Zoom when the pinch started, pinned parts are laid out for it */
+    private float scalePreviewZoom = 1f;
+
+    /** True if visible tiles are rendered at reduced resolution first, then in full quality */
+    private boolean progressiveRendering = false;
+
+    /** True if preloading grows with scrolling velocity and flings prefetch their landing viewport */
+    private boolean velocityPrefetch = false;
+
+    /** Velocity of the current drag in pixels per second along the scrolling axis */
+    private float dragVelocity = 0;
+
+    /** True while a fling with a known landing position is in progress */
+    private boolean flingLanding = false;
+
+    /** Offsets the current fling will land on */
+    private float flingFinalX, flingFinalY;
+
+    /** Number of landed flings, visible tiles at their landing viewports and how many of them were cached */
+    private long flingLandings = 0;
+    private long landingTiles = 0;
+    private long landingCachedTiles = 0;
+
+    /** Zoom levels tiles are rendered for, tiles are drawn scaled for zooms between levels. Null for powers of 2 */
+    private float[] tileZoomLevels = null;
+
     private int defaultPage = 0;
 
     /** True if should scroll through pages vertically instead of horizontally */
@@ -190,9 +269,14 @@ public class PDFView extends RelativeLayout {
         return scrollHandle;
     }
 
+    ScrollDir getScrollDir() {
+        return scrollDir;
+    }
+
     /**
      * True if bitmap should use ARGB_8888 format and take more memory
-     * False if bitmap should be compressed by using RGB_565 format and take less memory
+     * False if bitmap should be compressed by using RGB_565 format and take less memory,
+     * pages are then rendered on white background
      */
     private boolean bestQuality = false;
 
@@ -225,11 +309,27 @@ public class PDFView extends RelativeLayout {
     private boolean pageFling = true;
 
     /** Pages numbers used when calling onDrawAllListener */
-    private List<Integer> onDrawPagesNums = new ArrayList<>(10);
+    private final SparseBooleanArray onDrawPagesNums = new SparseBooleanArray(10);
+
+    /** Rects reused by every call of drawPart, so drawing doesn't allocate */
+    private final Rect drawSrcRect = new Rect();
+    private final RectF drawDstRect = new RectF();
 
     /** Holds info whether view has been added to layout and has width and height */
     private boolean hasSize = false;
 
+    /** True if pages are going to be loaded on the next frame */
+    private boolean loadPagesScheduled = false;
+
+    /** Loads pages once per frame for requests made by scrolling and animations */
+    private final Choreographer.FrameCallback loadPagesCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            loadPagesScheduled = false;
+            loadPages();
+        }
+    };
+
     /** Holds last used Configurator that should be loaded when view has size */
     private Configurator waitingDocumentConfigurator;
 
@@ -237,16 +337,21 @@ public class PDFView extends RelativeLayout {
     public PDFView(Context context, AttributeSet set) {
         super(context, set);
 
-        renderingHandlerThread = new HandlerThread("PDF renderer");
+        renderingPool = new RenderingPool();
 
         if (isInEditMode()) {
             return;
         }
 
-        cacheManager = new CacheManager();
+        bitmapPool = new BitmapPool(bestQuality ? Constants.Cache.BITMAP_POOL_SIZE
+                : Constants.Cache.BITMAP_POOL_SIZE / 2);
+        cacheManager = new CacheManager(bitmapPool,
+                CacheManager.defaultSize(context, Constants.Cache.TILE_CACHE_MEMORY_FRACTION),
+                CacheManager.defaultSize(context, Constants.Cache.THUMBNAIL_CACHE_MEMORY_FRACTION));
         animationManager = new AnimationManager(this);
         dragPinchManager = new DragPinchManager(this, animationManager);
         pagesLoader = new PagesLoader(this);
+        pageCompositor = new PageCompositor(this);
 
         paint = new Paint();
         debugPaint = new Paint();
@@ -304,6 +409,13 @@ public class PDFView extends RelativeLayout {
     }
 
     void showPage(int pageNb) {
+        showPage(pageNb, false);
+    }
+
+    /**
+     * @param coalesce true to load pages on the next frame, together with other requests made until then
+     */
+    private void showPage(int pageNb, boolean coalesce) {
         if (recycled) {
             return;
         }
@@ -313,7 +425,11 @@ public class PDFView extends RelativeLayout {
         pageNb = pdfFile.determineValidPageNumberFrom(pageNb);
         currentPage = pageNb;
 
-        loadPages();
+        if (coalesce) {
+            scheduleLoadPages();
+        } else {
+            loadPages();
+        }
 
         if (scrollHandle != null && !documentFitsView()) {
             scrollHandle.setPageNum(currentPage + 1);
@@ -407,17 +523,26 @@ public class PDFView extends RelativeLayout {
 
         animationManager.stopAll();
         dragPinchManager.disable();
+        cancelScheduledLoadPages();
 
         // Stop tasks
-        if (renderingHandler != null) {
-            renderingHandler.stop();
-            renderingHandler.removeMessages(RenderingHandler.MSG_RENDER_TASK);
+        if (renderingPool != null) {
+            renderingPool.stop();
         }
         if (decodingAsyncTask != null) {
             decodingAsyncTask.cancel(true);
         }
+        if (pageMeasuringAsyncTask != null) {
+            pageMeasuringAsyncTask.cancel(true);
+            pageMeasuringAsyncTask = null;
+        }
+
+        if (frameMetrics != null) {
+            frameMetrics.stop();
+        }
 
         // Clear caches
+        pageCompositor.clear();
         cacheManager.recycle();
 
         if (scrollHandle != null && isScrollHandleInit) {
@@ -429,11 +554,11 @@ public class PDFView extends RelativeLayout {
             pdfFile = null;
         }
 
-        renderingHandler = null;
         scrollHandle = null;
         isScrollHandleInit = false;
         currentXOffset = currentYOffset = 0;
         zoom = 1f;
+        scalePreviewActive = false;
         recycled = true;
         callbacks = new Callbacks();
         state = State.DEFAULT;
@@ -453,20 +578,103 @@ public class PDFView extends RelativeLayout {
         animationManager.computeFling();
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (isInEditMode()) {
+            return;
+        }
+        getContext().getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         recycle();
-        if (renderingHandlerThread != null) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                renderingHandlerThread.quitSafely();
-            } else {
-                renderingHandlerThread.quit();
-            }
-            renderingHandlerThread = null;
+        if (renderingPool != null) {
+            renderingPool.quit();
+        }
+        if (!isInEditMode()) {
+            pageCompositor.quit();
+            getContext().getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+            bitmapPool.clear();
         }
         super.onDetachedFromWindow();
     }
 
+    /** Releases cached bitmaps when the system is running low on memory */
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+    };
+
+    /** Keeps parts which are on the screen when memory is trimmed */
+    private final CacheManager.PartFilter visiblePartFilter = new CacheManager.PartFilter() {
+        @Override
+        public boolean keep(PagePart part) {
+            return isPartOnScreen(part);
+        }
+    };
+
+    /**
+     * Release memory in tiers depending on the level passed to {@link ComponentCallbacks2#onTrimMemory(int)}:
+     * passive parts first, then the bitmap pool and thumbnails which are off the screen,
+     * and finally everything except parts on the screen. Released parts are rendered again
+     * when they're requested by the next set of parts.
+     */
+    private void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            pageCompositor.clear();
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            cacheManager.trimParts(visiblePartFilter);
+            cacheManager.trimThumbnails(new CacheManager.PartFilter() {
+                @Override
+                public boolean keep(PagePart part) {
+                    return false;
+                }
+            });
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cacheManager.trimPassiveParts();
+            cacheManager.trimThumbnails(visiblePartFilter);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            cacheManager.trimPassiveParts();
+        }
+        bitmapPool.trimMemory(level);
+    }
+
+    /**
+     * @return true if the part intersects the view at current position and zoom
+     */
+    private boolean isPartOnScreen(PagePart part) {
+        if (pdfFile == null) {
+            return false;
+        }
+        int page = part.getPage();
+        SizeF size = pdfFile.getPageSizeF(page);
+        RectF bounds = part.getPageRelativeBounds();
+        float pageOffset = pdfFile.getPageOffset(page, zoom);
+        float secondaryOffset = pdfFile.getSecondaryPageOffset(page, zoom);
+        float pageX = currentXOffset + (swipeVertical ? secondaryOffset : pageOffset);
+        float pageY = currentYOffset + (swipeVertical ? pageOffset : secondaryOffset);
+        float left = pageX + toCurrentScale(bounds.left * size.getWidth());
+        float right = pageX + toCurrentScale(bounds.right * size.getWidth());
+        float top = pageY + toCurrentScale(bounds.top * size.getHeight());
+        float bottom = pageY + toCurrentScale(bounds.bottom * size.getHeight());
+        return left < getWidth() && right > 0 && top < getHeight() && bottom > 0;
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         hasSize = true;
@@ -555,6 +763,7 @@ public class PDFView extends RelativeLayout {
         if (isInEditMode()) {
             return;
         }
+        long drawStart = frameMetrics != null ? System.nanoTime() : 0;
         // As I said in this class javadoc, we can think of this canvas as a huge
         // strip on which we draw all the images. We actually only draw the rendered
         // parts, of course, but we render them in the place they belong in this huge
@@ -601,32 +810,94 @@ public class PDFView extends RelativeLayout {
             return;
         }
 
-        if (state != State.SHOWN) {
+        // placeholders are drawn before the first part is rendered
+        if (state != State.SHOWN && state != State.LOADED) {
             return;
         }
+        drawCalls = 0;
+        culledParts = 0;
 
         // Moves the canvas before drawing any element
         float currentXOffset = this.currentXOffset;
         float currentYOffset = this.currentYOffset;
         canvas.translate(currentXOffset, currentYOffset);
 
-        // Draws thumbnails
-        for (PagePart part : cacheManager.getThumbnails()) {
-            drawPart(canvas, part);
+        // Draws placeholders of visible pages, covered by thumbnails and parts once they are rendered
+        float primaryOffset = swipeVertical ? -currentYOffset : -currentXOffset;
+        int firstVisiblePage = pdfFile.getPageAtOffset(primaryOffset, zoom);
+        int lastVisiblePage = pdfFile.getPageAtOffset(primaryOffset + (swipeVertical ? getHeight() : getWidth()), zoom);
+        for (int page = firstVisiblePage; page <= lastVisiblePage; page++) {
+            PagePart placeholder = cacheManager.getPlaceholder(page);
+            if (placeholder != null) {
+                drawPart(canvas, placeholder);
+            }
+        }
 
+        if (state != State.SHOWN) {
+            canvas.translate(-currentXOffset, -currentYOffset);
+            lastDrawCalls = drawCalls;
+            return;
         }
 
-        // Draws parts
-        for (PagePart part : cacheManager.getPageParts()) {
-            drawPart(canvas, part);
-            if (callbacks.getOnDrawAll() != null
-                    && !onDrawPagesNums.contains(part.getPage())) {
-                onDrawPagesNums.add(part.getPage());
+        // Draws thumbnails of visible pages, lists are iterated by index so drawing doesn't allocate
+        List<PagePart> thumbnails = cacheManager.getThumbnails();
+        for (int i = 0; i < thumbnails.size(); i++) {
+            PagePart thumbnail = thumbnails.get(i);
+            if (thumbnail.getPage() >= firstVisiblePage && thumbnail.getPage() <= lastVisiblePage) {
+                drawPart(canvas, thumbnail);
             }
         }
 
-        for (Integer page : onDrawPagesNums) {
-            drawWithListener(canvas, page, callbacks.getOnDrawAll());
+        // Draws parts pinned when pinch started. During the pinch they are laid out for the zoom
+        // they were pinned at and scaled with the canvas, then they stay under new parts until those are ready
+        List<PagePart> pinnedParts = cacheManager.getPinnedParts();
+        if (scalePreviewActive) {
+            float scale = zoom / scalePreviewZoom;
+            canvas.scale(scale, scale);
+            for (int i = 0; i < pinnedParts.size(); i++) {
+                PagePart part = pinnedParts.get(i);
+                drawPart(canvas, part, scalePreviewZoom);
+                if (callbacks.getOnDrawAll() != null) {
+                    onDrawPagesNums.put(part.getPage(), true);
+                }
+            }
+            canvas.scale(1 / scale, 1 / scale);
+        } else {
+            for (int i = 0; i < pinnedParts.size(); i++) {
+                PagePart part = pinnedParts.get(i);
+                if (part.getPage() >= firstVisiblePage && part.getPage() <= lastVisiblePage) {
+                    drawPart(canvas, part);
+                }
+            }
+
+            // Draws composites of merged pages instead of their parts
+            float tileZoom = compositing ? getTileZoom() : 0;
+            for (int page = firstVisiblePage; compositing && page <= lastVisiblePage; page++) {
+                PagePart composite = pageCompositor.getComposite(page, tileZoom);
+                if (composite != null) {
+                    drawPart(canvas, composite);
+                    if (callbacks.getOnDrawAll() != null) {
+                        onDrawPagesNums.put(page, true);
+                    }
+                }
+            }
+
+            // Draws parts, only those of visible pages are taken from the cache
+            List<PagePart> parts = cacheManager.getPageParts(firstVisiblePage, lastVisiblePage);
+            for (int i = 0; i < parts.size(); i++) {
+                PagePart part = parts.get(i);
+                if (compositing && pageCompositor.getComposite(part.getPage(), tileZoom) != null) {
+                    continue;
+                }
+                drawPart(canvas, part);
+                if (callbacks.getOnDrawAll() != null) {
+                    onDrawPagesNums.put(part.getPage(), true);
+                }
+            }
+        }
+
+        for (int i = 0; i < onDrawPagesNums.size(); i++) {
+            drawWithListener(canvas, onDrawPagesNums.keyAt(i), callbacks.getOnDrawAll());
         }
         onDrawPagesNums.clear();
 
@@ -634,6 +905,10 @@ public class PDFView extends RelativeLayout {
 
         // Restores the canvas position
         canvas.translate(-currentXOffset, -currentYOffset);
+        lastDrawCalls = drawCalls;
+        if (frameMetrics != null) {
+            frameMetrics.onFrameDrawn(System.nanoTime() - drawStart, drawCalls, culledParts);
+        }
     }
 
     private void drawWithListener(Canvas canvas, int page, OnDrawListener listener) {
@@ -660,6 +935,14 @@ public class PDFView extends RelativeLayout {
 
     /** Draw a given PagePart on the canvas */
     private void drawPart(Canvas canvas, PagePart part) {
+        drawPart(canvas, part, zoom);
+    }
+
+    /**
+     * Draw a given PagePart on the canvas, laid out for given zoom. The canvas is expected to be scaled
+     * by the ratio of the current zoom and the layout zoom.
+     */
+    private void drawPart(Canvas canvas, PagePart part, float layoutZoom) {
         // Can seem strange, but avoid lot of calls
         RectF pageRelativeBounds = part.getPageRelativeBounds();
         Bitmap renderedBitmap = part.getRenderedBitmap();
@@ -674,41 +957,45 @@ public class PDFView extends RelativeLayout {
         SizeF size = pdfFile.getPageSizeF(part.getPage());
 
         if (swipeVertical) {
-            localTranslationY = pdfFile.getPageOffset(part.getPage(), zoom);
+            localTranslationY = pdfFile.getPageOffset(part.getPage(), layoutZoom);
             float maxWidth = pdfFile.getMaxPageWidth();
-            localTranslationX = toCurrentScale(maxWidth - size.getWidth()) / 2;
+            localTranslationX = (maxWidth - size.getWidth()) * layoutZoom / 2;
         } else {
-            localTranslationX = pdfFile.getPageOffset(part.getPage(), zoom);
+            localTranslationX = pdfFile.getPageOffset(part.getPage(), layoutZoom);
             float maxHeight = pdfFile.getMaxPageHeight();
-            localTranslationY = toCurrentScale(maxHeight - size.getHeight()) / 2;
+            localTranslationY = (maxHeight - size.getHeight()) * layoutZoom / 2;
         }
         canvas.translate(localTranslationX, localTranslationY);
 
-        Rect srcRect = new Rect(0, 0, renderedBitmap.getWidth(),
-                renderedBitmap.getHeight());
+        Rect srcRect = drawSrcRect;
+        srcRect.set(0, 0, part.getWidth(), part.getHeight());
 
-        float offsetX = toCurrentScale(pageRelativeBounds.left * size.getWidth());
-        float offsetY = toCurrentScale(pageRelativeBounds.top * size.getHeight());
-        float width = toCurrentScale(pageRelativeBounds.width() * size.getWidth());
-        float height = toCurrentScale(pageRelativeBounds.height() * size.getHeight());
+        float offsetX = pageRelativeBounds.left * size.getWidth() * layoutZoom;
+        float offsetY = pageRelativeBounds.top * size.getHeight() * layoutZoom;
+        float width = pageRelativeBounds.width() * size.getWidth() * layoutZoom;
+        float height = pageRelativeBounds.height() * size.getHeight() * layoutZoom;
 
         // If we use float values for this rectangle, there will be
         // a possible gap between page parts, especially when
         // the zoom level is high.
-        RectF dstRect = new RectF((int) offsetX, (int) offsetY,
+        RectF dstRect = drawDstRect;
+        dstRect.set((int) offsetX, (int) offsetY,
                 (int) (offsetX + width),
                 (int) (offsetY + height));
 
         // Check if bitmap is in the screen
-        float translationX = currentXOffset + localTranslationX;
-        float translationY = currentYOffset + localTranslationY;
-        if (translationX + dstRect.left >= getWidth() || translationX + dstRect.right <= 0 ||
-                translationY + dstRect.top >= getHeight() || translationY + dstRect.bottom <= 0) {
+        float scale = zoom / layoutZoom;
+        float translationX = currentXOffset + localTranslationX * scale;
+        float translationY = currentYOffset + localTranslationY * scale;
+        if (translationX + dstRect.left * scale >= getWidth() || translationX + dstRect.right * scale <= 0 ||
+                translationY + dstRect.top * scale >= getHeight() || translationY + dstRect.bottom * scale <= 0) {
             canvas.translate(-localTranslationX, -localTranslationY);
+            culledParts++;
             return;
         }
 
         canvas.drawBitmap(renderedBitmap, srcRect, dstRect, paint);
+        drawCalls++;
 
         if (Constants.DEBUG_MODE) {
             debugPaint.setColor(part.getPage() % 2 == 0 ? Color.RED : Color.BLUE);
@@ -726,29 +1013,54 @@ public class PDFView extends RelativeLayout {
      * the current page displayed
      */
     public void loadPages() {
-        if (pdfFile == null || renderingHandler == null) {
+        cancelScheduledLoadPages();
+        if (pdfFile == null || !renderingPool.isStarted()) {
+            return;
+        }
+
+        // parts pinned for a pinch are scaled until it ends, nothing is rendered during it
+        if (scalePreviewActive) {
             return;
         }
 
-        // Cancel all current tasks
-        renderingHandler.removeMessages(RenderingHandler.MSG_RENDER_TASK);
+        // sizes measured during a fling are applied once it's over
+        if (pdfFile.hasMeasuredPageSizes() && !animationManager.isFlinging()) {
+            applyMeasuredPageSizes();
+        }
+
+        // Queued tasks are ordered again for the new position instead of being cancelled
         cacheManager.makeANewSet();
 
+        long planStart = frameMetrics != null ? System.nanoTime() : 0;
+        Trace.beginSection("PDF load pages");
         pagesLoader.loadPages();
+        Trace.endSection();
+        if (frameMetrics != null) {
+            frameMetrics.onPlan(System.nanoTime() - planStart);
+        }
+        if (compositing) {
+            pageCompositor.schedule();
+        }
         redraw();
     }
 
-    /** Called when the PDF is loaded */
-    void loadComplete(PdfFile pdfFile) {
+    /**
+     * Called when the PDF is loaded
+     *
+     * @param placeholders stored thumbnails shown until pages are rendered
+     */
+    void loadComplete(PdfFile pdfFile, List<PagePart> placeholders) {
         state = State.LOADED;
 
         this.pdfFile = pdfFile;
+        cacheManager.setPlaceholders(placeholders);
+
+        renderingPool.start(this, pdfFile);
 
-        if (!renderingHandlerThread.isAlive()) {
-            renderingHandlerThread.start();
+        if (!pdfFile.isLayoutComplete()) {
+            pageMeasuringAsyncTask = new PageMeasuringAsyncTask(pdfFile, this);
+            pageMeasuringAsyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         }
-        renderingHandler = new RenderingHandler(renderingHandlerThread.getLooper(), this);
-        renderingHandler.start();
 
         if (scrollHandle != null) {
             scrollHandle.setupLayout(this);
@@ -762,6 +1074,45 @@ public class PDFView extends RelativeLayout {
         jumpTo(defaultPage, false);
     }
 
+    /** Called when pages with estimated size have been measured in the background */
+    void onPagesMeasured(PdfFile pdfFile) {
+        if (pdfFile != this.pdfFile || animationManager.isFlinging()) {
+            return;
+        }
+        applyMeasuredPageSizes();
+        loadPages();
+    }
+
+    /**
+     * Apply measured page sizes to the layout, keeping the point in the center of the view
+     * at the same position of the same page
+     */
+    private void applyMeasuredPageSizes() {
+        float centerX = -currentXOffset + getWidth() * 0.5f;
+        float centerY = -currentYOffset + getHeight() * 0.5f;
+        float primaryOffset = swipeVertical ? centerY : centerX;
+        int page = pdfFile.getPageAtOffset(primaryOffset, zoom);
+        float pageLength = pdfFile.getPageLength(page, zoom);
+        float positionInPage = pageLength > 0 ? (primaryOffset - pdfFile.getPageOffset(page, zoom)) / pageLength : 0;
+        float secondaryLength = toCurrentScale(swipeVertical ? pdfFile.getMaxPageWidth() : pdfFile.getMaxPageHeight());
+        float relativeSecondaryOffset = (swipeVertical ? centerX : centerY) / secondaryLength;
+
+        if (!pdfFile.applyMeasuredPageSizes(new Size(getWidth(), getHeight()))) {
+            return;
+        }
+        pageCompositor.clear();
+
+        primaryOffset = pdfFile.getPageOffset(page, zoom) + positionInPage * pdfFile.getPageLength(page, zoom);
+        secondaryLength = toCurrentScale(swipeVertical ? pdfFile.getMaxPageWidth() : pdfFile.getMaxPageHeight());
+        float secondaryOffset = relativeSecondaryOffset * secondaryLength;
+        if (swipeVertical) {
+            moveTo(-secondaryOffset + getWidth() * 0.5f, -primaryOffset + getHeight() * 0.5f);
+        } else {
+            moveTo(-primaryOffset + getWidth() * 0.5f, -secondaryOffset + getHeight() * 0.5f);
+        }
+        loadPageByOffset();
+    }
+
     void loadError(Throwable t) {
         state = State.ERROR;
         // store reference, because callbacks will be cleared in recycle() method
@@ -792,11 +1143,17 @@ public class PDFView extends RelativeLayout {
             callbacks.callOnRender(pdfFile.getPagesCount());
         }
 
+        Trace.beginSection("PDF cache part");
         if (part.isThumbnail()) {
             cacheManager.cacheThumbnail(part);
         } else {
             cacheManager.cachePart(part);
         }
+        Trace.endSection();
+        releaseScalePreviewIfReady();
+        if (compositing) {
+            pageCompositor.schedule();
+        }
         redraw();
     }
 
@@ -909,9 +1266,27 @@ public class PDFView extends RelativeLayout {
         int page = pdfFile.getPageAtOffset(-(offset - screenCenter), zoom);
 
         if (page >= 0 && page <= pdfFile.getPagesCount() - 1 && page != getCurrentPage()) {
-            showPage(page);
+            showPage(page, true);
         } else {
-            loadPages();
+            scheduleLoadPages();
+        }
+    }
+
+    /**
+     * Load pages on the next frame, so scrolling and animations build at most one set of tiles per frame
+     */
+    private void scheduleLoadPages() {
+        if (loadPagesScheduled) {
+            return;
+        }
+        loadPagesScheduled = true;
+        Choreographer.getInstance().postFrameCallback(loadPagesCallback);
+    }
+
+    private void cancelScheduledLoadPages() {
+        if (loadPagesScheduled) {
+            loadPagesScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(loadPagesCallback);
         }
     }
 
@@ -1164,6 +1539,9 @@ public class PDFView extends RelativeLayout {
 
     public void useBestQuality(boolean bestQuality) {
         this.bestQuality = bestQuality;
+        // RGB_565 bitmaps take half of the memory
+        long poolSize = Constants.Cache.BITMAP_POOL_SIZE;
+        bitmapPool.setMaxBytes(bestQuality ? poolSize : poolSize / 2);
     }
 
     public boolean isBestQuality() {
@@ -1242,6 +1620,354 @@ public class PDFView extends RelativeLayout {
         return fitEachPage;
     }
 
+    private void setIncrementalLayout(boolean incrementalLayout) {
+        this.incrementalLayout = incrementalLayout;
+    }
+
+    public boolean isIncrementalLayout() {
+        return incrementalLayout;
+    }
+
+    private void setPageSizeIndexEnabled(boolean pageSizeIndex) {
+        this.pageSizeIndex = pageSizeIndex;
+    }
+
+    public boolean isPageSizeIndexEnabled() {
+        return pageSizeIndex;
+    }
+
+    private void setCompositing(boolean compositing) {
+        this.compositing = compositing;
+        if (!compositing) {
+            pageCompositor.clear();
+        }
+    }
+
+    public boolean isCompositing() {
+        return compositing;
+    }
+
+    /**
+     * @return number of bitmaps drawn by the last frame
+     */
+    public int getDrawCalls() {
+        return lastDrawCalls;
+    }
+
+    private void setFrameMetricsEnabled(boolean enabled) {
+        if (!enabled && frameMetrics != null) {
+            frameMetrics.stop();
+            frameMetrics = null;
+        } else if (enabled && frameMetrics == null) {
+            frameMetrics = new FrameMetricsRecorder(this);
+        }
+    }
+
+    public boolean isFrameMetricsEnabled() {
+        return frameMetrics != null;
+    }
+
+    /**
+     * @return metrics of the latest frames, or null if frame metrics are disabled
+     */
+    public FrameMetrics getFrameMetrics() {
+        return frameMetrics != null ? frameMetrics.getMetrics() : null;
+    }
+
+    private void setRenderMetricsEnabled(boolean enabled) {
+        if (!enabled) {
+            renderMetrics = null;
+        } else if (renderMetrics == null) {
+            renderMetrics = new RenderMetricsRecorder(this);
+        }
+    }
+
+    public boolean isRenderMetricsEnabled() {
+        return renderMetrics != null;
+    }
+
+    /**
+     * @return latency of rendering stages of the latest tiles, or null if render metrics are disabled
+     */
+    public RenderMetrics getRenderMetrics() {
+        return renderMetrics != null ? renderMetrics.getMetrics() : null;
+    }
+
+    /**
+     * Called on the UI thread when a full quality tile has been cached, with times of its stages in nanoseconds
+     */
+    void recordRenderTimes(long queueWait, long allocation, long render, long postDelay, long total) {
+        if (renderMetrics != null) {
+            renderMetrics.record(queueWait, allocation, render, postDelay, total);
+        }
+    }
+
+    /**
+     * @return true if nothing moves and all visible tiles are rendered
+     */
+    boolean isIdle() {
+        return state == State.SHOWN && !scalePreviewActive && !animationManager.isFlinging()
+                && !renderingPool.hasVisibleTasks();
+    }
+
+    /**
+     * @return zoom level tiles are rendered for at current zoom
+     */
+    float getTileZoom() {
+        return MathUtils.limit(MathUtils.quantizeZoom(zoom, tileZoomLevels),
+                CacheManager.MIN_TILE_ZOOM, CacheManager.MAX_TILE_ZOOM);
+    }
+
+    private void setSharedCacheEnabled(boolean sharedCache) {
+        this.sharedTileCache = sharedCache ? SharedTileCache.get(getContext()) : null;
+        cacheManager.setSharedCache(sharedTileCache);
+    }
+
+    public boolean isSharedCacheEnabled() {
+        return sharedTileCache != null;
+    }
+
+    /**
+     * @return number of parts copied from the cache of another view instead of being rendered
+     */
+    public long getSharedCacheHits() {
+        return sharedTileCache != null ? sharedTileCache.getHits() : 0;
+    }
+
+    private void setDiskCacheEnabled(boolean diskCache) {
+        this.diskTileCache = diskCache ? DiskTileCache.get(getContext().getCacheDir()) : null;
+    }
+
+    public boolean isDiskCacheEnabled() {
+        return diskTileCache != null;
+    }
+
+    /**
+     * @return number of parts decoded from the disk cache instead of being rendered
+     */
+    public long getDiskCacheHits() {
+        return diskTileCache != null ? diskTileCache.getHits() : 0;
+    }
+
+    /**
+     * @return number of parts which were not found in the disk cache
+     */
+    public long getDiskCacheMisses() {
+        return diskTileCache != null ? diskTileCache.getMisses() : 0;
+    }
+
+    private void setThumbnailStoreEnabled(boolean thumbnailStore) {
+        this.thumbnailStore = thumbnailStore ? ThumbnailStore.get(getContext().getCacheDir()) : null;
+    }
+
+    public boolean isThumbnailStoreEnabled() {
+        return thumbnailStore != null;
+    }
+
+    private void setScalePreview(boolean scalePreview) {
+        this.scalePreview = scalePreview;
+    }
+
+    public boolean isScalePreview() {
+        return scalePreview;
+    }
+
+    /**
+     * Called when a pinch starts, pins visible parts in scale preview mode
+     */
+    void onScaleBegin() {
+        if (!scalePreview || renderDuringScale || state != State.SHOWN) {
+            return;
+        }
+        cacheManager.pinActiveParts();
+        scalePreviewZoom = zoom;
+        scalePreviewActive = true;
+    }
+
+    /**
+     * Called when a pinch ends, loads parts for the new zoom
+     */
+    void onScaleEnd() {
+        scalePreviewActive = false;
+        loadPages();
+        releaseScalePreviewIfReady();
+    }
+
+    /**
+     * Return pinned parts to the cache once visible parts for the current zoom are rendered
+     */
+    private void releaseScalePreviewIfReady() {
+        if (!scalePreviewActive && cacheManager.hasPinnedParts() && !renderingPool.hasVisibleTasks()) {
+            cacheManager.unpinParts();
+            redraw();
+        }
+    }
+
+    /**
+     * @param tileCacheSize      bytes of cached parts, 0 for the default size
+     * @param thumbnailCacheSize bytes of cached thumbnails, 0 for the default size
+     */
+    private void setCacheSize(long tileCacheSize, long thumbnailCacheSize) {
+        if (tileCacheSize <= 0) {
+            tileCacheSize = CacheManager.defaultSize(getContext(), Constants.Cache.TILE_CACHE_MEMORY_FRACTION);
+        }
+        if (thumbnailCacheSize <= 0) {
+            thumbnailCacheSize = CacheManager.defaultSize(getContext(),
+                    Constants.Cache.THUMBNAIL_CACHE_MEMORY_FRACTION);
+        }
+        cacheManager.setMaxBytes(tileCacheSize, thumbnailCacheSize);
+    }
+
+    /**
+     * @return maximum bytes of cached parts
+     */
+    public long getTileCacheSize() {
+        return cacheManager.getMaxTileBytes();
+    }
+
+    /**
+     * @return maximum bytes of cached thumbnails
+     */
+    public long getThumbnailCacheSize() {
+        return cacheManager.getMaxThumbnailBytes();
+    }
+
+    /**
+     * @return bytes allocated by cached parts
+     */
+    public long getTileCacheBytes() {
+        return cacheManager.getTileBytes();
+    }
+
+    /**
+     * @return bytes allocated by cached thumbnails
+     */
+    public long getThumbnailCacheBytes() {
+        return cacheManager.getThumbnailBytes();
+    }
+
+    private void setVelocityPrefetch(boolean velocityPrefetch) {
+        this.velocityPrefetch = velocityPrefetch;
+    }
+
+    public boolean isVelocityPrefetch() {
+        return velocityPrefetch;
+    }
+
+    void setDragVelocity(float dragVelocity) {
+        this.dragVelocity = dragVelocity;
+    }
+
+    /**
+     * @return velocity of the current drag or fling in pixels per second
+     */
+    float getScrollVelocity() {
+        return animationManager.isFlinging() ? animationManager.getFlingVelocity() : dragVelocity;
+    }
+
+    /**
+     * Called when a fling starts, requests tiles of its landing viewport in velocity prefetch mode
+     */
+    void onFlingStart(float finalX, float finalY) {
+        if (!velocityPrefetch) {
+            return;
+        }
+        flingLanding = true;
+        flingFinalX = finalX;
+        flingFinalY = finalY;
+        loadPages();
+    }
+
+    /**
+     * Called when a fling is stopped before it lands, tiles requested for its landing viewport are dropped
+     */
+    void onFlingCancelled() {
+        if (!flingLanding) {
+            return;
+        }
+        flingLanding = false;
+        if (renderingPool != null) {
+            renderingPool.clearLandingArea();
+        }
+    }
+
+    /**
+     * Called when a fling lands, records how many visible tiles were ready
+     */
+    void onFlingEnd() {
+        boolean landed = flingLanding;
+        flingLanding = false;
+        loadPages();
+        if (landed && pdfFile != null) {
+            flingLandings++;
+            landingTiles += pagesLoader.getVisibleTiles();
+            landingCachedTiles += pagesLoader.getCachedVisibleTiles();
+        }
+    }
+
+    boolean hasFlingLanding() {
+        return flingLanding;
+    }
+
+    float getFlingFinalX() {
+        return flingFinalX;
+    }
+
+    float getFlingFinalY() {
+        return flingFinalY;
+    }
+
+    /**
+     * @return number of flings which landed since the view was created, in velocity prefetch mode
+     */
+    public long getFlingLandings() {
+        return flingLandings;
+    }
+
+    /**
+     * @return part of visible tiles which were already rendered when a fling landed, between 0 and 1
+     */
+    public float getFlingLandingHitRate() {
+        return landingTiles > 0 ? (float) landingCachedTiles / landingTiles : 0;
+    }
+
+    private void setProgressiveRendering(boolean progressiveRendering) {
+        this.progressiveRendering = progressiveRendering;
+    }
+
+    public boolean isProgressiveRendering() {
+        return progressiveRendering;
+    }
+
+    /**
+     * @return average time from requesting a tile to rendering its draft in progressive mode, in ms
+     */
+    public long getAverageTimeToDraft() {
+        return renderingPool.getAverageTimeToDraft();
+    }
+
+    /**
+     * @return average time from requesting a tile to rendering it in full quality, in ms
+     */
+    public long getAverageTimeToFinal() {
+        return renderingPool.getAverageTimeToFinal();
+    }
+
+    private void setTileZoomLevels(float[] tileZoomLevels) {
+        this.tileZoomLevels = tileZoomLevels;
+    }
+
+    /**
+     * @return zoom levels tiles are rendered for, null for powers of 2
+     */
+    public float[] getTileZoomLevels() {
+        return tileZoomLevels;
+    }
+
+    int getDefaultPage() {
+        return defaultPage;
+    }
+
     public boolean isPageSnap() {
         return pageSnap;
     }
@@ -1254,6 +1980,56 @@ public class PDFView extends RelativeLayout {
         return renderDuringScale;
     }
 
+    public int getRenderWorkers() {
+        return renderWorkers;
+    }
+
+    /**
+     * @return number of rendered parts which reused a pooled bitmap
+     */
+    public long getBitmapPoolHits() {
+        return bitmapPool.getHits();
+    }
+
+    /**
+     * @return number of rendered parts which needed a new bitmap
+     */
+    public long getBitmapPoolMisses() {
+        return bitmapPool.getMisses();
+    }
+
+    /**
+     * @return number of tile requests merged with a tile which was already queued or being rendered
+     */
+    public long getDeduplicatedRenderTasks() {
+        return renderingPool.getDeduplicatedTasks();
+    }
+
+    /**
+     * @return number of queued tiles skipped because they were no longer near the viewport
+     */
+    public long getCancelledRenderTasks() {
+        return renderingPool.getCancelledTasks();
+    }
+
+    /**
+     * @return number of pages opened by the renderers of the current document
+     */
+    public long getPageOpens() {
+        return renderingPool.getPageOpens();
+    }
+
+    /**
+     * @return number of times a renderer closed a page to render another one
+     */
+    public long getPageSwitches() {
+        return renderingPool.getPageSwitches();
+    }
+
+    private void setRenderWorkers(int renderWorkers) {
+        this.renderWorkers = Math.max(1, renderWorkers);
+    }
+
     /** Use an asset file as the pdf source */
     public Configurator fromAsset(String assetName) {
         return new Configurator(new AssetSource(assetName));
@@ -1314,6 +2090,10 @@ public class PDFView extends RelativeLayout {
 
         private OnLongPressListener onLongPressListener;
 
+        private OnFrameMetricsListener onFrameMetricsListener;
+
+        private OnRenderMetricsListener onRenderMetricsListener;
+
         private OnPageErrorListener onPageErrorListener;
 
         private int defaultPage = 0;
@@ -1334,12 +2114,42 @@ public class PDFView extends RelativeLayout {
 
         private boolean fitEachPage = false;
 
+        private boolean incrementalLayout = false;
+
+        private boolean pageSizeIndex = false;
+
+        private boolean diskCache = false;
+
+        private boolean thumbnailStore = false;
+
+        private float[] tileZoomLevels = null;
+
+        private boolean progressiveRendering = false;
+
+        private boolean scalePreview = false;
+
+        private boolean velocityPrefetch = false;
+
+        private long tileCacheSize = 0;
+
+        private long thumbnailCacheSize = 0;
+
+        private boolean sharedCache = false;
+
+        private boolean compositing = false;
+
+        private boolean frameMetrics = false;
+
+        private boolean renderMetrics = false;
+
         private boolean pageFling = false;
 
         private boolean pageSnap = false;
 
         private boolean nightMode = false;
 
+        private int renderWorkers = RenderingPool.defaultWorkerCount();
+
         private Configurator(DocumentSource documentSource) {
             this.documentSource = documentSource;
         }
@@ -1414,6 +2224,24 @@ public class PDFView extends RelativeLayout {
             return this;
         }
 
+        /**
+         * Called with metrics of the latest frames every {@link Constants#FRAME_METRICS_WINDOW} frames,
+         * when frame metrics are enabled
+         */
+        public Configurator onFrameMetrics(OnFrameMetricsListener onFrameMetricsListener) {
+            this.onFrameMetricsListener = onFrameMetricsListener;
+            return this;
+        }
+
+        /**
+         * Called with latency of rendering stages every {@link Constants#RENDER_METRICS_WINDOW} tiles,
+         * when render metrics are enabled
+         */
+        public Configurator onRenderMetrics(OnRenderMetricsListener onRenderMetricsListener) {
+            this.onRenderMetricsListener = onRenderMetricsListener;
+            return this;
+        }
+
         public Configurator defaultPage(int defaultPage) {
             this.defaultPage = defaultPage;
             return this;
@@ -1454,6 +2282,154 @@ public class PDFView extends RelativeLayout {
             return this;
         }
 
+        /**
+         * Measure only pages around the default page before the document is shown,
+         * other pages get an estimated size until they are measured in the background.
+         * Speeds up opening of documents with many pages.
+         */
+        public Configurator incrementalLayout(boolean incrementalLayout) {
+            this.incrementalLayout = incrementalLayout;
+            return this;
+        }
+
+        /**
+         * Store page sizes of the document in the cache directory, so pages don't have to be measured
+         * when the same document is opened again. Stored sizes are ignored when the document changes.
+         */
+        public Configurator pageSizeIndex(boolean pageSizeIndex) {
+            this.pageSizeIndex = pageSizeIndex;
+            return this;
+        }
+
+        /**
+         * Keep rendered parts in the cache directory, so parts of documents opened again are decoded
+         * instead of rendered. Size of the cache is limited by {@link Constants.Cache#DISK_CACHE_SIZE}.
+         */
+        public Configurator diskCache(boolean diskCache) {
+            this.diskCache = diskCache;
+            return this;
+        }
+
+        /**
+         * Keep thumbnails in the cache directory. Stored thumbnails are shown as placeholders
+         * from the first frame when the document is opened again. Size of stored thumbnails of all documents
+         * is limited by {@link Constants.Cache#THUMBNAIL_STORE_SIZE}.
+         */
+        public Configurator thumbnailStore(boolean thumbnailStore) {
+            this.thumbnailStore = thumbnailStore;
+            return this;
+        }
+
+        /**
+         * Zoom levels tiles are rendered for, tiles of the smallest level not below the current zoom are drawn
+         * scaled down, so small zoom changes reuse rendered tiles without blurring them. Above the largest level,
+         * tiles of that level are drawn enlarged. Powers of 2 are used by default.
+         *
+         * @throws IllegalArgumentException if a level is not between 1/256 and 255,
+         *                                  or two levels are less than 1/256 apart
+         */
+        public Configurator tileZoomLevels(float... tileZoomLevels) {
+            if (tileZoomLevels != null) {
+                for (int i = 0; i < tileZoomLevels.length; i++) {
+                    float level = tileZoomLevels[i];
+                    if (!(level >= CacheManager.MIN_TILE_ZOOM && level <= CacheManager.MAX_TILE_ZOOM)) {
+                        throw new IllegalArgumentException("Tile zoom level out of range: " + level);
+                    }
+                    for (int j = 0; j < i; j++) {
+                        if (CacheManager.zoomCode(tileZoomLevels[j]) == CacheManager.zoomCode(level)) {
+                            throw new IllegalArgumentException("Tile zoom levels too close: "
+                                    + tileZoomLevels[j] + ", " + level);
+                        }
+                    }
+                }
+            }
+            this.tileZoomLevels = tileZoomLevels;
+            return this;
+        }
+
+        /**
+         * Render visible tiles at reduced resolution first, so something readable is shown sooner
+         * on slow devices, then replace them with full quality tiles
+         */
+        public Configurator progressiveRendering(boolean progressiveRendering) {
+            this.progressiveRendering = progressiveRendering;
+            return this;
+        }
+
+        /**
+         * When rendering during scale is disabled, keep tiles visible when a pinch starts and draw them scaled
+         * during the pinch. They are released once tiles for the new zoom are rendered.
+         */
+        public Configurator scalePreview(boolean scalePreview) {
+            this.scalePreview = scalePreview;
+            return this;
+        }
+
+        /**
+         * Maximum bytes of cached parts, by default derived from the app's memory class,
+         * see {@link Constants.Cache#TILE_CACHE_MEMORY_FRACTION}
+         */
+        public Configurator tileCacheSize(long tileCacheSize) {
+            this.tileCacheSize = tileCacheSize;
+            return this;
+        }
+
+        /**
+         * Share one budget of cached parts with other views using the shared cache, see
+         * {@link Constants.Cache#SHARED_CACHE_MEMORY_FRACTION}, instead of {@link #tileCacheSize(long)}.
+         * Views showing the same document copy parts rendered by each other instead of rendering them again.
+         */
+        public Configurator sharedCache(boolean sharedCache) {
+            this.sharedCache = sharedCache;
+            return this;
+        }
+
+        /**
+         * Merge the tiles of each fully visible page into one bitmap while the view is idle,
+         * so the page is drawn with one draw call. Takes extra memory for the merged pages.
+         */
+        public Configurator compositing(boolean compositing) {
+            this.compositing = compositing;
+            return this;
+        }
+
+        /**
+         * Record draw time, parts drawn and culled, time of planning parts to load and dropped frames,
+         * see {@link PDFView#getFrameMetrics()} and {@link #onFrameMetrics(OnFrameMetricsListener)}
+         */
+        public Configurator frameMetrics(boolean frameMetrics) {
+            this.frameMetrics = frameMetrics;
+            return this;
+        }
+
+        /**
+         * Record queue wait, bitmap allocation, render and post-to-UI times of full quality tiles,
+         * see {@link PDFView#getRenderMetrics()} and {@link #onRenderMetrics(OnRenderMetricsListener)}.
+         * Rendering stages are emitted as {@link Trace} sections either way.
+         */
+        public Configurator renderMetrics(boolean renderMetrics) {
+            this.renderMetrics = renderMetrics;
+            return this;
+        }
+
+        /**
+         * Maximum bytes of cached thumbnails, by default derived from the app's memory class,
+         * see {@link Constants.Cache#THUMBNAIL_CACHE_MEMORY_FRACTION}
+         */
+        public Configurator thumbnailCacheSize(long thumbnailCacheSize) {
+            this.thumbnailCacheSize = thumbnailCacheSize;
+            return this;
+        }
+
+        /**
+         * Grow the preload margin in the direction of scrolling with velocity, and render the viewport
+         * a fling will land on while the fling is in progress
+         */
+        public Configurator velocityPrefetch(boolean velocityPrefetch) {
+            this.velocityPrefetch = velocityPrefetch;
+            return this;
+        }
+
         public Configurator pageSnap(boolean pageSnap) {
             this.pageSnap = pageSnap;
             return this;
@@ -1469,6 +2445,15 @@ public class PDFView extends RelativeLayout {
             return this;
         }
 
+        /**
+         * Number of threads rendering tiles in parallel, each one holds its own renderer of the document.
+         * Sources which can't be duplicated, like streams, always use a single worker.
+         */
+        public Configurator renderWorkers(int renderWorkers) {
+            this.renderWorkers = renderWorkers;
+            return this;
+        }
+
         public Configurator disableLongpress() {
             PDFView.this.dragPinchManager.disableLongpress();
             return this;
@@ -1489,6 +2474,8 @@ public class PDFView extends RelativeLayout {
             PDFView.this.callbacks.setOnRender(onRenderListener);
             PDFView.this.callbacks.setOnTap(onTapListener);
             PDFView.this.callbacks.setOnLongPress(onLongPressListener);
+            PDFView.this.callbacks.setOnFrameMetrics(onFrameMetricsListener);
+            PDFView.this.callbacks.setOnRenderMetrics(onRenderMetricsListener);
             PDFView.this.callbacks.setOnPageError(onPageErrorListener);
             PDFView.this.setSwipeEnabled(enableSwipe);
             PDFView.this.setNightMode(nightMode);
@@ -1502,8 +2489,22 @@ public class PDFView extends RelativeLayout {
             PDFView.this.setAutoSpacing(autoSpacing);
             PDFView.this.setPageFitPolicy(pageFitPolicy);
             PDFView.this.setFitEachPage(fitEachPage);
+            PDFView.this.setIncrementalLayout(incrementalLayout);
+            PDFView.this.setPageSizeIndexEnabled(pageSizeIndex);
+            PDFView.this.setDiskCacheEnabled(diskCache);
+            PDFView.this.setThumbnailStoreEnabled(thumbnailStore);
+            PDFView.this.setTileZoomLevels(tileZoomLevels);
+            PDFView.this.setProgressiveRendering(progressiveRendering);
+            PDFView.this.setScalePreview(scalePreview);
+            PDFView.this.setVelocityPrefetch(velocityPrefetch);
+            PDFView.this.setCacheSize(tileCacheSize, thumbnailCacheSize);
+            PDFView.this.setSharedCacheEnabled(sharedCache);
+            PDFView.this.setCompositing(compositing);
+            PDFView.this.setFrameMetricsEnabled(frameMetrics);
+            PDFView.this.setRenderMetricsEnabled(renderMetrics);
             PDFView.this.setPageSnap(pageSnap);
             PDFView.this.setPageFling(pageFling);
+            PDFView.this.setRenderWorkers(renderWorkers);
 
             if (pageNumbers != null) {
                 PDFView.this.load(documentSource, pageNumbers);
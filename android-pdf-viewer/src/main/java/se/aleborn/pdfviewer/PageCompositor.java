@@ -0,0 +1,283 @@
+package se.aleborn.pdfviewer;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import se.aleborn.pdfviewer.model.PagePart;
+import se.aleborn.pdfviewer.model.SizeF;
+import se.aleborn.pdfviewer.util.Constants;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Merges the parts of fully visible pages into one bitmap per page while the view is idle,
+ * so such a page is drawn with a single draw call instead of one per part.
+ * <p>
+ * A page is merged once all parts of its grid at the current zoom level are cached in full quality.
+ * Parts are copied on a background thread, each under the lock of {@link CacheManager}, and the composite
+ * is swapped in on the UI thread. Parts stay cached, so when the zoom level changes the composite
+ * isn't drawn any more and the page is drawn from its parts again until it's idle and merged once more.
+ * <p>
+ * Composites are charged to the budget of parts in {@link CacheManager} before they're created,
+ * a page isn't merged if its composite doesn't fit.
+ */
+class PageCompositor {
+
+    private static final String TAG = PageCompositor.class.getSimpleName();
+
+    private final PDFView pdfView;
+
+    private HandlerThread thread;
+
+    private Handler handler;
+
+    /** Composites by page, used on the UI thread only */
+    private final SparseArray<PagePart> composites = new SparseArray<>();
+
+    /** Pages being merged in the background, used on the UI thread only */
+    private final SparseBooleanArray pending = new SparseBooleanArray();
+
+    /** Incremented when composites are dropped, so merges started before are discarded */
+    private int generation = 0;
+
+    private final Runnable idleCheck = new Runnable() {
+        @Override
+        public void run() {
+            compositeVisiblePages();
+        }
+    };
+
+    PageCompositor(PDFView pdfView) {
+        this.pdfView = pdfView;
+    }
+
+    /**
+     * Look for pages to merge once the view has been idle for {@link Constants#COMPOSITE_IDLE_DELAY},
+     * every call postpones the check
+     */
+    void schedule() {
+        pdfView.removeCallbacks(idleCheck);
+        pdfView.postDelayed(idleCheck, Constants.COMPOSITE_IDLE_DELAY);
+    }
+
+    /**
+     * @return composite of the page at given zoom level, or null
+     */
+    @Nullable
+    PagePart getComposite(int page, float tileZoom) {
+        PagePart composite = composites.get(page);
+        return composite != null && composite.getZoom() == tileZoom ? composite : null;
+    }
+
+    private void compositeVisiblePages() {
+        PdfFile pdfFile = pdfView.pdfFile;
+        if (pdfFile == null || !pdfView.isIdle()) {
+            return;
+        }
+        float zoom = pdfView.getZoom();
+        float tileZoom = pdfView.getTileZoom();
+        int width = pdfView.getWidth();
+        int height = pdfView.getHeight();
+
+        // composites of another zoom level or of pages which aren't fully visible any more are dropped
+        for (int i = composites.size() - 1; i >= 0; i--) {
+            PagePart composite = composites.valueAt(i);
+            if (composite.getZoom() != tileZoom || !isPageFullyVisible(pdfFile, composite.getPage(), zoom)) {
+                composites.removeAt(i);
+                recycle(composite);
+            }
+        }
+
+        boolean vertical = pdfView.isSwipeVertical();
+        float primaryOffset = vertical ? -pdfView.getCurrentYOffset() : -pdfView.getCurrentXOffset();
+        int firstPage = pdfFile.getPageAtOffset(primaryOffset, zoom);
+        int lastPage = pdfFile.getPageAtOffset(primaryOffset + (vertical ? height : width), zoom);
+        for (int page = firstPage; page <= lastPage; page++) {
+            if (composites.get(page) != null || pending.get(page) || !isPageFullyVisible(pdfFile, page, zoom)) {
+                continue;
+            }
+            SizeF size = pdfFile.getPageSizeF(page);
+            int rows = PagesLoader.getGridCells(size.getHeight(), tileZoom);
+            int cols = PagesLoader.getGridCells(size.getWidth(), tileZoom);
+            if (!isPageCached(page, tileZoom, rows, cols)) {
+                continue;
+            }
+            boolean bestQuality = pdfView.isBestQuality();
+            long bytes = BitmapPool.allocationBytes(getCompositeSize(cols), getCompositeSize(rows), getConfig(bestQuality));
+            if (pdfView.cacheManager.chargeComposite(bytes)) {
+                pending.put(page, true);
+                start();
+                handler.post(new CompositeTask(page, tileZoom, rows, cols, bestQuality, bytes, generation));
+            }
+        }
+    }
+
+    /**
+     * @return side of a composite of given number of grid cells, parts fill the grid at their full size,
+     * so the composite keeps their resolution
+     */
+    private static int getCompositeSize(int cells) {
+        return Math.round(Constants.PART_SIZE * cells);
+    }
+
+    private static Bitmap.Config getConfig(boolean bestQuality) {
+        return bestQuality ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+    }
+
+    /**
+     * Recycle the composite and release its charge
+     */
+    private void recycle(PagePart composite) {
+        Bitmap bitmap = composite.getRenderedBitmap();
+        pdfView.cacheManager.releaseComposite(
+                BitmapPool.allocationBytes(composite.getWidth(), composite.getHeight(), bitmap.getConfig()));
+        bitmap.recycle();
+    }
+
+    private boolean isPageFullyVisible(PdfFile pdfFile, int page, float zoom) {
+        boolean vertical = pdfView.isSwipeVertical();
+        float pageOffset = pdfFile.getPageOffset(page, zoom);
+        float secondaryOffset = pdfFile.getSecondaryPageOffset(page, zoom);
+        SizeF size = pdfFile.getScaledPageSize(page, zoom);
+        float left = pdfView.getCurrentXOffset() + (vertical ? secondaryOffset : pageOffset);
+        float top = pdfView.getCurrentYOffset() + (vertical ? pageOffset : secondaryOffset);
+        return left >= 0 && top >= 0
+                && left + size.getWidth() <= pdfView.getWidth() && top + size.getHeight() <= pdfView.getHeight();
+    }
+
+    private boolean isPageCached(int page, float tileZoom, int rows, int cols) {
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                if (!pdfView.cacheManager.containsPart(CacheManager.partKey(page, tileZoom, row, col))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void start() {
+        if (thread == null) {
+            thread = new HandlerThread("PDF compositor");
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+    }
+
+    /**
+     * Called on the UI thread with a merged page, or null if it couldn't be merged
+     *
+     * @param bytes charged for the composite
+     */
+    private void onComposited(int page, @Nullable PagePart composite, long bytes, int taskGeneration) {
+        if (taskGeneration != generation) {
+            if (composite != null) {
+                composite.getRenderedBitmap().recycle();
+            }
+            pdfView.cacheManager.releaseComposite(bytes);
+            return;
+        }
+        pending.delete(page);
+        if (composite != null) {
+            composites.put(page, composite);
+            pdfView.redraw();
+        } else {
+            pdfView.cacheManager.releaseComposite(bytes);
+        }
+    }
+
+    /**
+     * Drop all composites, pages are drawn from their parts again
+     */
+    void clear() {
+        pdfView.removeCallbacks(idleCheck);
+        generation++;
+        for (int i = 0; i < composites.size(); i++) {
+            recycle(composites.valueAt(i));
+        }
+        composites.clear();
+        pending.clear();
+    }
+
+    /**
+     * Drop all composites and quit the background thread
+     */
+    void quit() {
+        clear();
+        if (thread != null) {
+            thread.quitSafely();
+            thread = null;
+            handler = null;
+        }
+    }
+
+    /** Merges cached parts of one page, runs on the background thread */
+    private class CompositeTask implements Runnable {
+        private final int page;
+        private final float tileZoom;
+        private final int rows, cols;
+        private final boolean bestQuality;
+        private final long bytes;
+        private final int taskGeneration;
+
+        CompositeTask(int page, float tileZoom, int rows, int cols, boolean bestQuality, long bytes, int generation) {
+            this.page = page;
+            this.tileZoom = tileZoom;
+            this.rows = rows;
+            this.cols = cols;
+            this.bestQuality = bestQuality;
+            this.bytes = bytes;
+            this.taskGeneration = generation;
+        }
+
+        @Override
+        public void run() {
+            int width = getCompositeSize(cols);
+            int height = getCompositeSize(rows);
+            PagePart composite = null;
+            try {
+                Bitmap bitmap = Bitmap.createBitmap(width, height, getConfig(bestQuality));
+                if (merge(new Canvas(bitmap), width, height)) {
+                    composite = new PagePart(page, bitmap, new RectF(0, 0, 1, 1), false, 0,
+                            width, height, tileZoom);
+                } else {
+                    bitmap.recycle();
+                }
+            } catch (IllegalArgumentException | OutOfMemoryError e) {
+                Log.e(TAG, "Cannot create bitmap", e);
+            }
+            final PagePart result = composite;
+            pdfView.post(new Runnable() {
+                @Override
+                public void run() {
+                    onComposited(page, result, bytes, taskGeneration);
+                }
+            });
+        }
+
+        /**
+         * @return false if a part has been evicted in the meantime
+         */
+        private boolean merge(Canvas canvas, int width, int height) {
+            Rect dst = new Rect();
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    // rounded edges of neighbouring parts meet, so there are no seams
+                    dst.set(width * col / cols, height * row / rows,
+                            width * (col + 1) / cols, height * (row + 1) / rows);
+                    if (!pdfView.cacheManager.drawPart(CacheManager.partKey(page, tileZoom, row, col), canvas, dst)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
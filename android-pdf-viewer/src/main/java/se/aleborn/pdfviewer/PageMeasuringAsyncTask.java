@@ -0,0 +1,45 @@
+package se.aleborn.pdfviewer;
+
+import android.os.AsyncTask;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Measures pages with estimated size in the background when incremental layout is enabled,
+ * measured sizes are applied to the layout in batches on the UI thread.
+ */
+class PageMeasuringAsyncTask extends AsyncTask<Void, Void, Void> {
+
+    /** Number of pages measured between layout updates */
+    private static final int PAGES_PER_UPDATE = 50;
+
+    private WeakReference<PDFView> pdfViewReference;
+
+    private PdfFile pdfFile;
+
+    PageMeasuringAsyncTask(PdfFile pdfFile, PDFView pdfView) {
+        this.pdfFile = pdfFile;
+        this.pdfViewReference = new WeakReference<>(pdfView);
+    }
+
+    @Override
+    protected Void doInBackground(Void... params) {
+        while (!isCancelled() && pdfFile.measurePages(PAGES_PER_UPDATE)) {
+            publishProgress();
+        }
+        return null;
+    }
+
+    @Override
+    protected void onProgressUpdate(Void... values) {
+        PDFView pdfView = pdfViewReference.get();
+        if (pdfView != null && !isCancelled()) {
+            pdfView.onPagesMeasured(pdfFile);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Void result) {
+        onProgressUpdate();
+    }
+}
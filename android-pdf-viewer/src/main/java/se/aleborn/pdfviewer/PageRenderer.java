@@ -0,0 +1,110 @@
+package se.aleborn.pdfviewer;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.pdf.PdfRenderer;
+
+import se.aleborn.pdfviewer.model.Size;
+
+/**
+ * Wraps a single {@link PdfRenderer}. A renderer can only hold one open page at a time,
+ * so every rendering thread owns its own instance.
+ */
+class PageRenderer {
+    private final Matrix renderMatrix = new Matrix();
+    private final PdfRenderer pdfRenderer;
+    private int currentOpenPageIndex = -1;
+    private PdfRenderer.Page currentOpenPage = null;
+    private boolean closed = false;
+
+    /** Number of pages opened by this renderer */
+    private volatile long pageOpens = 0;
+
+    /** Number of times an open page had to be closed to open another one */
+    private volatile long pageSwitches = 0;
+
+    PageRenderer(PdfRenderer pdfRenderer) {
+        this.pdfRenderer = pdfRenderer;
+    }
+
+    int getPageCount() {
+        return pdfRenderer.getPageCount();
+    }
+
+    /**
+     * @param docPage page of the PDF document
+     * @return original size of the page, or null if the renderer is closed
+     */
+    synchronized Size getPageSize(int docPage) {
+        if (closed) {
+            return null;
+        }
+        PdfRenderer.Page page = getPage(docPage);
+        return new Size(page.getWidth(), page.getHeight());
+    }
+
+    /**
+     * @param docPage page of the PDF document
+     * @return true if page has been opened and can be rendered
+     */
+    synchronized boolean openPage(int docPage) {
+        return !closed && getPage(docPage) != null;
+    }
+
+    synchronized void renderPageBitmap(Bitmap bitmap, int docPage, Rect bounds) {
+        if (closed) {
+            return;
+        }
+        PdfRenderer.Page page = getPage(docPage);
+        float scaleX = ((float) bounds.width()) / page.getWidth();
+        float scaleY = ((float) bounds.height()) / page.getHeight();
+        renderMatrix.reset();
+        renderMatrix.setScale(scaleX, scaleY);
+        renderMatrix.postTranslate(bounds.left, bounds.top);
+        page.render(bitmap, null, renderMatrix, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+    }
+
+    private PdfRenderer.Page getPage(int docPage) {
+        if (currentOpenPageIndex == docPage) {
+            return currentOpenPage;
+        }
+        currentOpenPageIndex = -1;
+        if (currentOpenPage != null) {
+            currentOpenPage.close();
+            currentOpenPage = null;
+            pageSwitches++;
+        }
+        currentOpenPage = pdfRenderer.openPage(docPage);
+        currentOpenPageIndex = docPage;
+        pageOpens++;
+        return currentOpenPage;
+    }
+
+    /**
+     * @return page of the PDF document which is open now, or -1
+     */
+    synchronized int getOpenPage() {
+        return closed ? -1 : currentOpenPageIndex;
+    }
+
+    long getPageOpens() {
+        return pageOpens;
+    }
+
+    long getPageSwitches() {
+        return pageSwitches;
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (currentOpenPage != null) {
+            currentOpenPage.close();
+            currentOpenPage = null;
+        }
+        pdfRenderer.close();
+    }
+}
@@ -0,0 +1,185 @@
+package se.aleborn.pdfviewer;
+
+import android.util.Log;
+
+import se.aleborn.pdfviewer.model.Size;
+import se.aleborn.pdfviewer.util.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Sizes of document pages stored in the cache directory, so pages of a document opened again
+ * don't have to be opened just to be measured.
+ * <p>
+ * There is one file for every document, named by its {@link DocumentFingerprint}. The file is a header
+ * (magic, version, fingerprint, page count) followed by width and height of every page as ints.
+ * Pages which haven't been measured have zero size. A changed document gets a new fingerprint,
+ * so stale files are never read and are removed when there are too many of them.
+ */
+class PageSizeIndex {
+
+    private static final String TAG = PageSizeIndex.class.getSimpleName();
+
+    /** Directory in the cache directory holding index files */
+    static final String DIRECTORY = "pdfviewer-page-sizes";
+
+    /** Maximum number of index files kept, least recently used are removed first */
+    private static final int MAX_FILES = 32;
+
+    private static final int MAGIC = 0x50445349;
+
+    private static final int VERSION = 1;
+
+    /** Magic, version, fingerprint size, modification time and sample hash, page count */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4;
+
+    private final File directory;
+
+    private final File file;
+
+    private final DocumentFingerprint fingerprint;
+
+    /** Width and height of every page, zero if unknown */
+    private final int[] sizes;
+
+    private boolean dirty = false;
+
+    private PageSizeIndex(File directory, DocumentFingerprint fingerprint, int pageCount) {
+        this.directory = directory;
+        this.fingerprint = fingerprint;
+        this.file = new File(directory, fingerprint.getKey());
+        this.sizes = new int[pageCount * 2];
+    }
+
+    /**
+     * Open the index of a document, reading sizes stored before if there are any
+     *
+     * @param cacheDirectory cache directory of the application
+     * @param pageCount      number of pages of the document
+     */
+    static PageSizeIndex open(File cacheDirectory, DocumentFingerprint fingerprint, int pageCount) {
+        PageSizeIndex index = new PageSizeIndex(new File(cacheDirectory, DIRECTORY), fingerprint, pageCount);
+        index.read();
+        return index;
+    }
+
+    /**
+     * @return stored size of the page, or null if it's unknown
+     */
+    synchronized Size getPageSize(int docPage) {
+        if (docPage < 0 || docPage * 2 >= sizes.length || sizes[docPage * 2] == 0) {
+            return null;
+        }
+        return new Size(sizes[docPage * 2], sizes[docPage * 2 + 1]);
+    }
+
+    synchronized void putPageSize(int docPage, Size size) {
+        if (docPage < 0 || docPage * 2 >= sizes.length
+                || (sizes[docPage * 2] == size.getWidth() && sizes[docPage * 2 + 1] == size.getHeight())) {
+            return;
+        }
+        sizes[docPage * 2] = size.getWidth();
+        sizes[docPage * 2 + 1] = size.getHeight();
+        dirty = true;
+    }
+
+    /**
+     * Write the index if any size has been added since it was read
+     */
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File temp = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint.size);
+            out.writeLong(fingerprint.modificationTime);
+            out.writeLong(fingerprint.sampleHash);
+            out.writeInt(sizes.length / 2);
+            for (int size : sizes) {
+                out.writeInt(size);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+            dirty = false;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write page sizes", e);
+            temp.delete();
+        } finally {
+            FileUtils.closeQuietly(out);
+        }
+        trim();
+    }
+
+    private void read() {
+        if (!file.isFile()) {
+            return;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() != HEADER_SIZE + sizes.length * 4L) {
+                return;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != fingerprint.size
+                    || buffer.getLong() != fingerprint.modificationTime
+                    || buffer.getLong() != fingerprint.sampleHash
+                    || buffer.getInt() * 2 != sizes.length) {
+                return;
+            }
+            IntBuffer pageSizes = buffer.asIntBuffer();
+            pageSizes.get(sizes);
+            file.setLastModified(System.currentTimeMillis());
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot read page sizes", e);
+            Arrays.fill(sizes, 0);
+        } finally {
+            FileUtils.closeQuietly(randomAccessFile);
+        }
+    }
+
+    /**
+     * Remove least recently used index files above {@link #MAX_FILES}
+     */
+    private void trim() {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long modified1 = file1.lastModified();
+                long modified2 = file2.lastModified();
+                return modified1 < modified2 ? -1 : (modified1 == modified2 ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - MAX_FILES; i++) {
+            files[i].delete();
+        }
+    }
+}
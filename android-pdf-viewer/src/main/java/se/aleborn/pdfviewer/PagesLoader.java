@@ -22,7 +22,7 @@ import se.aleborn.pdfviewer.util.MathUtils;
 import se.aleborn.pdfviewer.model.SizeF;
 import se.aleborn.pdfviewer.util.Util;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import static se.aleborn.pdfviewer.util.Constants.Cache.CACHE_SIZE;
@@ -38,8 +38,33 @@ class PagesLoader {
     private float pageRelativePartHeight;
     private float partRenderWidth;
     private float partRenderHeight;
+    /** Zoom level tiles are rendered for, the current zoom snapped to the zoom ladder */
+    private float tileZoom;
+    /** Position and size of the currently loaded page in the document, at current zoom */
+    private float pageX;
+    private float pageY;
+    private float scaledPageWidth;
+    private float scaledPageHeight;
     private final RectF thumbnailRect = new RectF(0, 0, 1, 1);
+    /** Bounds of the cell looked up in the cache, copied only when a task is created for it */
+    private final RectF cellBounds = new RectF();
+    /** Render ranges reused by every call of {@link #getRenderRangeList(float, float, float, float)} */
+    private final List<RenderRange> renderRanges = new ArrayList<>();
+    private int renderRangeCount;
+    /** Visible area and area loaded with preload margins, in document coordinates at zoom 1 */
+    private final RectF viewport = new RectF();
+    private final RectF loadedArea = new RectF();
+    /** Viewport a fling will land on, in document coordinates at zoom 1, empty if there is none */
+    private final RectF landingArea = new RectF();
     private final int preloadOffset;
+    /** Preload margins before and after the viewport along the scrolling axis, at current zoom */
+    private float preloadStart;
+    private float preloadEnd;
+    /** Priority of loaded tiles which aren't visible */
+    private int hiddenPriority;
+    /** Visible tiles requested by the last call of {@link #loadPages()}, and how many of them were cached */
+    private int visibleTiles;
+    private int cachedVisibleTiles;
 
     private class Holder {
         int row;
@@ -98,12 +123,18 @@ class PagesLoader {
 
     private void getPageColsRows(GridSize grid, int pageIndex) {
         SizeF size = pdfView.pdfFile.getPageSizeF(pageIndex);
-        float ratioX = 1f / size.getWidth();
-        float ratioY = 1f / size.getHeight();
-        final float partHeight = (Constants.PART_SIZE * ratioY) / pdfView.getZoom();
-        final float partWidth = (Constants.PART_SIZE * ratioX) / pdfView.getZoom();
-        grid.rows = MathUtils.ceil(1f / partHeight);
-        grid.cols = MathUtils.ceil(1f / partWidth);
+        // the grid depends only on the zoom level, so tiles are reused for zooms of the same level
+        grid.rows = getGridCells(size.getHeight(), tileZoom);
+        grid.cols = getGridCells(size.getWidth(), tileZoom);
+    }
+
+    /**
+     * @param pageLength page width or height at zoom 1
+     * @return number of columns or rows of the tile grid of a page at given zoom level
+     */
+    static int getGridCells(float pageLength, float tileZoom) {
+        final float partLength = (Constants.PART_SIZE * (1f / pageLength)) / tileZoom;
+        return MathUtils.ceil(1f / partLength);
     }
 
     private void calculatePartSize(GridSize grid) {
@@ -115,9 +146,11 @@ class PagesLoader {
 
 
     /**
-     * calculate the render range of each page
+     * calculate the render range of each page, ranges are stored in reused {@link #renderRanges}
+     *
+     * @return number of ranges
      */
-    private List<RenderRange> getRenderRangeList(float firstXOffset, float firstYOffset, float lastXOffset, float lastYOffset) {
+    private int getRenderRangeList(float firstXOffset, float firstYOffset, float lastXOffset, float lastYOffset) {
 
         float fixedFirstXOffset = -MathUtils.max(firstXOffset, 0);
         float fixedFirstYOffset = -MathUtils.max(firstYOffset, 0);
@@ -132,10 +165,13 @@ class PagesLoader {
         int lastPage = pdfView.pdfFile.getPageAtOffset(offsetLast, pdfView.getZoom());
         int pageCount = lastPage - firstPage + 1;
 
-        List<RenderRange> renderRanges = new LinkedList<>();
+        renderRangeCount = 0;
 
         for (int page = firstPage; page <= lastPage; page++) {
-            RenderRange range = new RenderRange();
+            if (renderRangeCount == renderRanges.size()) {
+                renderRanges.add(new RenderRange());
+            }
+            RenderRange range = renderRanges.get(renderRangeCount);
             range.page = page;
 
             float pageFirstXOffset, pageFirstYOffset, pageLastXOffset, pageLastYOffset;
@@ -218,34 +254,71 @@ class PagesLoader {
                 range.rightBottom.row = MathUtils.floor(MathUtils.min(pageLastYOffset - secondaryOffset, 0) / rowHeight);
             }
 
-            renderRanges.add(range);
+            renderRangeCount++;
         }
 
-        return renderRanges;
+        return renderRangeCount;
+    }
+
+    /**
+     * Calculate position of the page in the document at current zoom
+     */
+    private void calculatePagePosition(int page) {
+        float zoom = pdfView.getZoom();
+        float pageOffset = pdfView.pdfFile.getPageOffset(page, zoom);
+        float secondaryOffset = pdfView.pdfFile.getSecondaryPageOffset(page, zoom);
+        SizeF scaledPageSize = pdfView.pdfFile.getScaledPageSize(page, zoom);
+        pageX = pdfView.isSwipeVertical() ? secondaryOffset : pageOffset;
+        pageY = pdfView.isSwipeVertical() ? pageOffset : secondaryOffset;
+        scaledPageWidth = scaledPageSize.getWidth();
+        scaledPageHeight = scaledPageSize.getHeight();
     }
 
     private void loadVisible() {
+        hiddenPriority = RenderingTask.PRIORITY_PRELOAD;
+        // don't request more parts than the cache can keep
+        long tileBytes = CacheManager.estimatePartBytes(pdfView.isBestQuality());
+        int maxParts = (int) Math.max(1, Math.min(CACHE_SIZE, pdfView.cacheManager.getMaxTileBytes() / tileBytes));
+        int parts = loadArea(xOffset, yOffset, preloadStart, preloadEnd, maxParts);
+
+        if (!landingArea.isEmpty() && parts < maxParts) {
+            float zoom = pdfView.getZoom();
+            hiddenPriority = RenderingTask.PRIORITY_LANDING;
+            loadArea(landingArea.left * zoom, landingArea.top * zoom, 0, 0, maxParts - parts);
+        }
+    }
+
+    /**
+     * Load thumbnails and parts of the viewport at given position
+     *
+     * @param start margin before the viewport along the scrolling axis
+     * @param end   margin after the viewport along the scrolling axis
+     * @return number of loaded parts
+     */
+    private int loadArea(float areaXOffset, float areaYOffset, float start, float end, int nbOfPartsLoadable) {
         int parts = 0;
-        float scaledPreloadOffset = preloadOffset;
-        float firstXOffset = -xOffset + scaledPreloadOffset;
-        float lastXOffset = -xOffset - pdfView.getWidth() - scaledPreloadOffset;
-        float firstYOffset = -yOffset + scaledPreloadOffset;
-        float lastYOffset = -yOffset - pdfView.getHeight() - scaledPreloadOffset;
+        boolean vertical = pdfView.isSwipeVertical();
+        float firstXOffset = -areaXOffset + (vertical ? preloadOffset : start);
+        float lastXOffset = -areaXOffset - pdfView.getWidth() - (vertical ? preloadOffset : end);
+        float firstYOffset = -areaYOffset + (vertical ? start : preloadOffset);
+        float lastYOffset = -areaYOffset - pdfView.getHeight() - (vertical ? end : preloadOffset);
 
-        List<RenderRange> rangeList = getRenderRangeList(firstXOffset, firstYOffset, lastXOffset, lastYOffset);
+        int rangeCount = getRenderRangeList(firstXOffset, firstYOffset, lastXOffset, lastYOffset);
 
-        for (RenderRange range : rangeList) {
-            loadThumbnail(range.page);
+        for (int i = 0; i < rangeCount; i++) {
+            loadThumbnail(renderRanges.get(i).page);
         }
 
-        for (RenderRange range : rangeList) {
+        for (int i = 0; i < rangeCount; i++) {
+            RenderRange range = renderRanges.get(i);
             calculatePartSize(range.gridSize);
-            parts += loadPage(range.page, range.leftTop.row, range.rightBottom.row, range.leftTop.col, range.rightBottom.col, CACHE_SIZE - parts);
-            if (parts >= CACHE_SIZE) {
+            calculatePagePosition(range.page);
+            parts += loadPage(range.page, range.leftTop.row, range.rightBottom.row, range.leftTop.col, range.rightBottom.col, nbOfPartsLoadable - parts);
+            if (parts >= nbOfPartsLoadable) {
                 break;
             }
         }
-
+        return parts;
     }
 
     private int loadPage(int page, int firstRow, int lastRow, int firstCol, int lastCol,
@@ -281,13 +354,30 @@ class PagesLoader {
         }
         renderWidth *= relWidth;
         renderHeight *= relHeight;
-        RectF pageRelativeBounds = new RectF(relX, relY, relX + relWidth, relY + relHeight);
+        cellBounds.set(relX, relY, relX + relWidth, relY + relHeight);
 
         if (renderWidth > 0 && renderHeight > 0) {
-            if (!pdfView.cacheManager.upPartIfContained(page, pageRelativeBounds, cacheOrder)) {
-                pdfView.renderingHandler.addRenderingTask(page, renderWidth, renderHeight,
-                        pageRelativeBounds, false, cacheOrder, pdfView.isBestQuality(),
-                        pdfView.isAnnotationRendering());
+            float left = pageX + relX * scaledPageWidth;
+            float top = pageY + relY * scaledPageHeight;
+            float right = left + relWidth * scaledPageWidth;
+            float bottom = top + relHeight * scaledPageHeight;
+            boolean visible = left < xOffset + pdfView.getWidth() && right > xOffset
+                    && top < yOffset + pdfView.getHeight() && bottom > yOffset;
+            if (visible) {
+                visibleTiles++;
+            }
+            long key = CacheManager.partKey(page, tileZoom, row, col);
+            if (pdfView.cacheManager.upPartIfContained(key, cacheOrder)) {
+                if (visible) {
+                    cachedVisibleTiles++;
+                }
+            } else {
+                float zoom = pdfView.getZoom();
+                pdfView.renderingPool.addRenderingTask(page, renderWidth, renderHeight,
+                        new RectF(cellBounds), false, cacheOrder, pdfView.isBestQuality(),
+                        pdfView.isAnnotationRendering(),
+                        visible ? RenderingTask.PRIORITY_VISIBLE : hiddenPriority,
+                        tileZoom, new RectF(left / zoom, top / zoom, right / zoom, bottom / zoom), key);
             }
 
             cacheOrder++;
@@ -301,17 +391,84 @@ class PagesLoader {
         float thumbnailWidth = pageSize.getWidth() * Constants.THUMBNAIL_RATIO;
         float thumbnailHeight = pageSize.getHeight() * Constants.THUMBNAIL_RATIO;
         if (!pdfView.cacheManager.containsThumbnail(page, thumbnailRect)) {
-            pdfView.renderingHandler.addRenderingTask(page,
+            calculatePagePosition(page);
+            float zoom = pdfView.getZoom();
+            pdfView.renderingPool.addRenderingTask(page,
                     thumbnailWidth, thumbnailHeight, thumbnailRect,
-                    true, 0, pdfView.isBestQuality(), pdfView.isAnnotationRendering());
+                    true, 0, pdfView.isBestQuality(), pdfView.isAnnotationRendering(),
+                    RenderingTask.PRIORITY_THUMBNAIL, zoom,
+                    new RectF(pageX / zoom, pageY / zoom,
+                            (pageX + scaledPageWidth) / zoom, (pageY + scaledPageHeight) / zoom), 0);
         }
     }
 
     void loadPages() {
         cacheOrder = 1;
+        visibleTiles = 0;
+        cachedVisibleTiles = 0;
         xOffset = -MathUtils.max(pdfView.getCurrentXOffset(), 0);
         yOffset = -MathUtils.max(pdfView.getCurrentYOffset(), 0);
 
+        float zoom = pdfView.getZoom();
+        tileZoom = pdfView.getTileZoom();
+        float direction = 0;
+        if (pdfView.getScrollDir() == PDFView.ScrollDir.END) {
+            direction = 1;
+        } else if (pdfView.getScrollDir() == PDFView.ScrollDir.START) {
+            direction = -1;
+        }
+        calculatePreloadMargins(direction);
+        viewport.set(xOffset / zoom, yOffset / zoom,
+                (xOffset + pdfView.getWidth()) / zoom, (yOffset + pdfView.getHeight()) / zoom);
+        if (pdfView.isSwipeVertical()) {
+            loadedArea.set(viewport.left - preloadOffset / zoom, viewport.top - preloadStart / zoom,
+                    viewport.right + preloadOffset / zoom, viewport.bottom + preloadEnd / zoom);
+        } else {
+            loadedArea.set(viewport.left - preloadStart / zoom, viewport.top - preloadOffset / zoom,
+                    viewport.right + preloadEnd / zoom, viewport.bottom + preloadOffset / zoom);
+        }
+        if (pdfView.isVelocityPrefetch() && pdfView.hasFlingLanding()) {
+            float landingX = -MathUtils.max(pdfView.getFlingFinalX(), 0);
+            float landingY = -MathUtils.max(pdfView.getFlingFinalY(), 0);
+            landingArea.set(landingX / zoom, landingY / zoom,
+                    (landingX + pdfView.getWidth()) / zoom, (landingY + pdfView.getHeight()) / zoom);
+        } else {
+            landingArea.setEmpty();
+        }
+        pdfView.renderingPool.beginPlan(viewport, loadedArea, landingArea,
+                pdfView.isSwipeVertical() ? 0 : direction,
+                pdfView.isSwipeVertical() ? direction : 0);
         loadVisible();
+        pdfView.renderingPool.endPlan();
+    }
+
+    /**
+     * With velocity prefetch, grow the preload margin in the direction of scrolling
+     * in proportion to the scrolling velocity
+     *
+     * @param direction 1 when scrolling towards the end of the document, -1 towards the start, else 0
+     */
+    private void calculatePreloadMargins(float direction) {
+        preloadStart = preloadOffset;
+        preloadEnd = preloadOffset;
+        if (!pdfView.isVelocityPrefetch() || direction == 0) {
+            return;
+        }
+        float screen = pdfView.isSwipeVertical() ? pdfView.getHeight() : pdfView.getWidth();
+        float prefetch = Math.min(pdfView.getScrollVelocity() * Constants.PREFETCH_TIME,
+                screen * Constants.PREFETCH_MAX_SCREENS);
+        if (direction > 0) {
+            preloadEnd += prefetch;
+        } else {
+            preloadStart += prefetch;
+        }
+    }
+
+    int getVisibleTiles() {
+        return visibleTiles;
+    }
+
+    int getCachedVisibleTiles() {
+        return cachedVisibleTiles;
     }
 }
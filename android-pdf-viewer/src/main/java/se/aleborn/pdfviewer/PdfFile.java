@@ -16,22 +16,39 @@
 package se.aleborn.pdfviewer;
 
 import android.graphics.Bitmap;
-import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.pdf.PdfRenderer;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
 
 import se.aleborn.pdfviewer.exception.PageRenderingException;
+import se.aleborn.pdfviewer.util.Constants;
 import se.aleborn.pdfviewer.util.FitPolicy;
 import se.aleborn.pdfviewer.util.PageSizeCalculator;
 import se.aleborn.pdfviewer.model.Size;
 import se.aleborn.pdfviewer.model.SizeF;
 
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 class PdfFile {
-    private final Matrix renderMatrix = new Matrix();
-    private final PdfRenderer pdfRenderer;
+    private static final String TAG = PdfFile.class.getSimpleName();
+
+    /** Size of pages which don't exist */
+    private static final SizeF EMPTY_SIZE = new SizeF(0, 0);
+
+    /** Descriptor of the document, duplicated for every additional renderer, null if the source only provides a renderer */
+    private final ParcelFileDescriptor fileDescriptor;
+    /** Renderer used to measure pages, it is also used by the first rendering worker */
+    private final PageRenderer pageRenderer;
+    /** One renderer for each rendering worker */
+    private final List<PageRenderer> pageRenderers = new ArrayList<>();
     private int pagesCount = 0;
     /** Original page sizes */
     private List<Size> originalPageSizes = new ArrayList<>();
@@ -51,10 +68,10 @@ class PdfFile {
     private int spacingPx;
     /** Calculate spacing automatically so each page fits on it's own in the center of the view */
     private boolean autoSpacing;
-    /** Calculated offsets for pages */
-    private List<Float> pageOffsets = new ArrayList<>();
+    /** Calculated offsets for pages, a running sum of page lengths and spacing */
+    private float[] pageOffsets = new float[0];
     /** Calculated auto spacing for pages */
-    private List<Float> pageSpacing = new ArrayList<>();
+    private float[] pageSpacing = new float[0];
     /** Calculated document length (width or height, depending on swipe mode) */
     private float documentLength = 0;
     private final FitPolicy pageFitPolicy;
@@ -68,59 +85,184 @@ class PdfFile {
      * (ex: 0, 2, 2, 8, 8, 1, 1, 1)
      */
     private int[] originalUserPages;
-    private int currentOpenPageIndex = -1;
-    private PdfRenderer.Page currentOpenPage = null;
+    /** True for pages with measured size, other pages have an estimated size until they are measured */
+    private boolean[] measuredPages;
+    /** Number of pages with estimated size */
+    private int estimatedPagesCount = 0;
+    /** Pages to measure in the background, nearest to the default page first */
+    private int[] measuringOrder;
+    /** Position in {@link #measuringOrder}, used only by the measuring thread */
+    private int nextMeasuredPage = 0;
+    /** Renderer used by the measuring thread, so it doesn't close pages opened by rendering workers */
+    private PageRenderer measuringRenderer;
+    /** True once measuring is finished or the document is disposed */
+    private boolean measuringFinished = false;
+    /** Sizes measured in the background waiting to be applied on the UI thread, guarded by itself */
+    private final Map<Integer, Size> measuredPageSizes = new HashMap<>();
+    /** Identity of the document, null if it can't be determined or disk caching is disabled */
+    private final DocumentFingerprint fingerprint;
+    /** Page sizes stored on disk, null if not available */
+    private PageSizeIndex pageSizeIndex;
+
+    PdfFile(ParcelFileDescriptor fileDescriptor, int renderWorkers, FitPolicy pageFitPolicy, Size viewSize,
+            int[] originalUserPages, boolean isVertical, int spacing, boolean autoSpacing,
+            boolean fitEachPage, boolean incrementalLayout, int defaultPage,
+            DocumentFingerprint fingerprint, File cacheDirectory) throws IOException {
+        this(new PdfRenderer(fileDescriptor.dup()), fileDescriptor, renderWorkers, pageFitPolicy, viewSize,
+                originalUserPages, isVertical, spacing, autoSpacing, fitEachPage, incrementalLayout, defaultPage,
+                fingerprint, cacheDirectory);
+    }
 
-    PdfFile(PdfRenderer pdfRenderer,FitPolicy pageFitPolicy, Size viewSize, int[] originalUserPages,
-            boolean isVertical, int spacing, boolean autoSpacing, boolean fitEachPage) {
-        this.pdfRenderer = pdfRenderer;
+    /**
+     * @param fileDescriptor descriptor the renderer has been opened on, to open renderers of other workers,
+     *                       or null to render on the given renderer only
+     */
+    PdfFile(PdfRenderer pdfRenderer, @Nullable ParcelFileDescriptor fileDescriptor, int renderWorkers,
+            FitPolicy pageFitPolicy, Size viewSize, int[] originalUserPages, boolean isVertical, int spacing,
+            boolean autoSpacing, boolean fitEachPage, boolean incrementalLayout, int defaultPage,
+            DocumentFingerprint fingerprint, File cacheDirectory) {
+        this.fileDescriptor = fileDescriptor;
+        this.fingerprint = fingerprint;
+        this.pageRenderer = new PageRenderer(pdfRenderer);
         this.pageFitPolicy = pageFitPolicy;
         this.originalUserPages = originalUserPages;
         this.isVertical = isVertical;
         this.spacingPx = spacing;
         this.autoSpacing = autoSpacing;
         this.fitEachPage = fitEachPage;
-        setup(viewSize);
+        setupPageSizeIndex(cacheDirectory);
+        setup(viewSize, incrementalLayout, defaultPage);
+        setupRenderers(renderWorkers);
+    }
+
+    /**
+     * Open page sizes stored for this document, if the document has a fingerprint
+     *
+     * @param cacheDirectory directory of the page size index, null if the index is disabled
+     */
+    private void setupPageSizeIndex(File cacheDirectory) {
+        if (cacheDirectory != null && fingerprint != null) {
+            pageSizeIndex = PageSizeIndex.open(cacheDirectory, fingerprint, pageRenderer.getPageCount());
+        }
     }
 
-    private void setup(Size viewSize) {
+    private void setup(Size viewSize, boolean incrementalLayout, int defaultPage) {
         if (originalUserPages != null) {
             pagesCount = originalUserPages.length;
         } else {
 
-            pagesCount = pdfRenderer.getPageCount();
+            pagesCount = pageRenderer.getPageCount();
         }
 
-        for (int i = 0; i < pagesCount; i++) {
+        // measure only pages around the default page, the rest is measured in the background
+        int firstMeasured = 0;
+        int lastMeasured = pagesCount - 1;
+        int initiallyMeasured = Math.max(1, Constants.INCREMENTAL_LAYOUT_MEASURED_PAGES);
+        if (incrementalLayout && pagesCount > initiallyMeasured && !isIndexed()) {
+            int page = determineValidPageNumberFrom(defaultPage);
+            firstMeasured = Math.max(0, Math.min(page - initiallyMeasured / 2, pagesCount - initiallyMeasured));
+            lastMeasured = firstMeasured + initiallyMeasured - 1;
+        }
+
+        measuredPages = new boolean[pagesCount];
+        Size[] measuredSizes = new Size[pagesCount];
+        Map<Size, Integer> sizeCounts = new HashMap<>();
+        Size estimatedSize = null;
+        int estimatedSizeCount = 0;
+        for (int i = firstMeasured; i <= lastMeasured; i++) {
             Size pageSize = getPageSize(documentPage(i));
-            if (pageSize.getWidth() > originalMaxWidthPageSize.getWidth()) {
-                originalMaxWidthPageSize = pageSize;
+            updateMaxPageSize(pageSize);
+            measuredPages[i] = true;
+            measuredSizes[i] = pageSize;
+            Integer count = sizeCounts.get(pageSize);
+            count = count == null ? 1 : count + 1;
+            sizeCounts.put(pageSize, count);
+            if (count > estimatedSizeCount) {
+                estimatedSize = pageSize;
+                estimatedSizeCount = count;
+            }
+        }
+
+        // pages which are not measured yet get the most common size of measured pages
+        for (int i = 0; i < pagesCount; i++) {
+            originalPageSizes.add(measuredPages[i] ? measuredSizes[i] : estimatedSize);
+        }
+
+        estimatedPagesCount = pagesCount - (lastMeasured - firstMeasured + 1);
+        measuringOrder = new int[estimatedPagesCount];
+        int position = 0;
+        for (int distance = 1; position < estimatedPagesCount; distance++) {
+            if (lastMeasured + distance < pagesCount) {
+                measuringOrder[position++] = lastMeasured + distance;
             }
-            if (pageSize.getHeight() > originalMaxHeightPageSize.getHeight()) {
-                originalMaxHeightPageSize = pageSize;
+            if (firstMeasured - distance >= 0) {
+                measuringOrder[position++] = firstMeasured - distance;
             }
-            originalPageSizes.add(pageSize);
+        }
+
+        if (estimatedPagesCount == 0 && pageSizeIndex != null) {
+            pageSizeIndex.save();
         }
 
         recalculatePageSizes(viewSize);
     }
 
-    private Size getPageSize(int pageIndex) {
-        PdfRenderer.Page page = getPage(pageIndex);
-        return new Size(page.getWidth(), page.getHeight());
+    /**
+     * @return true if sizes of all pages are stored in the page size index
+     */
+    private boolean isIndexed() {
+        if (pageSizeIndex == null) {
+            return false;
+        }
+        for (int i = 0; i < pagesCount; i++) {
+            if (pageSizeIndex.getPageSize(documentPage(i)) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void updateMaxPageSize(Size pageSize) {
+        if (pageSize.getWidth() > originalMaxWidthPageSize.getWidth()) {
+            originalMaxWidthPageSize = pageSize;
+        }
+        if (pageSize.getHeight() > originalMaxHeightPageSize.getHeight()) {
+            originalMaxHeightPageSize = pageSize;
+        }
+    }
+
+    private Size getPageSize(int docPage) {
+        return measurePage(pageRenderer, docPage);
     }
 
-    private PdfRenderer.Page getPage(int pageIndex) {
-        if (currentOpenPageIndex == pageIndex) {
-            return currentOpenPage;
+    /**
+     * @return size of the page from the page size index or the renderer, null if the renderer is closed
+     */
+    private Size measurePage(PageRenderer renderer, int docPage) {
+        Size size = pageSizeIndex != null ? pageSizeIndex.getPageSize(docPage) : null;
+        if (size == null) {
+            size = renderer.getPageSize(docPage);
+            if (size != null && pageSizeIndex != null) {
+                pageSizeIndex.putPageSize(docPage, size);
+            }
         }
-        currentOpenPageIndex = -1;
-        if (currentOpenPage != null) {
-            currentOpenPage.close();
-            currentOpenPage = null;
+        return size;
+    }
+
+    /**
+     * Open an additional renderer on a duplicated descriptor for every worker above the first one.
+     * Sources which can't be duplicated (e.g. pipes) fall back to fewer workers.
+     */
+    private void setupRenderers(int renderWorkers) {
+        pageRenderers.add(pageRenderer);
+        for (int i = 1; i < renderWorkers && fileDescriptor != null; i++) {
+            try {
+                pageRenderers.add(new PageRenderer(new PdfRenderer(fileDescriptor.dup())));
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Cannot open renderer for worker " + i, e);
+                break;
+            }
         }
-        currentOpenPage = pdfRenderer.openPage(pageIndex);
-        return currentOpenPage;
     }
 
     /**
@@ -145,6 +287,124 @@ class PdfFile {
         preparePagesOffset();
     }
 
+    /**
+     * @return true if all pages are measured, false if some pages still have estimated sizes
+     */
+    boolean isLayoutComplete() {
+        return estimatedPagesCount == 0;
+    }
+
+    /**
+     * Measure next pages with estimated size, called from a background thread.
+     * Sizes are applied by {@link #applyMeasuredPageSizes(Size)} on the UI thread.
+     *
+     * @param count maximum number of pages to measure
+     * @return true if there are more pages to measure
+     */
+    boolean measurePages(int count) {
+        PageRenderer renderer = getMeasuringRenderer();
+        if (renderer == null) {
+            return false;
+        }
+        int end = Math.min(nextMeasuredPage + count, measuringOrder.length);
+        for (; nextMeasuredPage < end; nextMeasuredPage++) {
+            int page = measuringOrder[nextMeasuredPage];
+            Size size;
+            try {
+                size = measurePage(renderer, documentPage(page));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Cannot measure page " + page, e);
+                size = null;
+            }
+            if (size == null) {
+                // renderer was closed, document is disposed
+                return false;
+            }
+            synchronized (measuredPageSizes) {
+                measuredPageSizes.put(page, size);
+            }
+        }
+        if (nextMeasuredPage < measuringOrder.length) {
+            return true;
+        }
+        closeMeasuringRenderer();
+        if (pageSizeIndex != null) {
+            pageSizeIndex.save();
+        }
+        return false;
+    }
+
+    /**
+     * @return true if pages measured in the background are waiting to be applied
+     */
+    boolean hasMeasuredPageSizes() {
+        synchronized (measuredPageSizes) {
+            return !measuredPageSizes.isEmpty();
+        }
+    }
+
+    /**
+     * Replace estimated sizes with sizes measured in the background
+     *
+     * @return true if page sizes, offsets or document length have changed
+     */
+    boolean applyMeasuredPageSizes(Size viewSize) {
+        boolean changed = false;
+        synchronized (measuredPageSizes) {
+            for (Map.Entry<Integer, Size> entry : measuredPageSizes.entrySet()) {
+                int page = entry.getKey();
+                Size size = entry.getValue();
+                if (measuredPages[page]) {
+                    continue;
+                }
+                measuredPages[page] = true;
+                estimatedPagesCount--;
+                if (!size.equals(originalPageSizes.get(page))) {
+                    originalPageSizes.set(page, size);
+                    updateMaxPageSize(size);
+                    changed = true;
+                }
+            }
+            measuredPageSizes.clear();
+        }
+        if (changed) {
+            recalculatePageSizes(viewSize);
+        }
+        return changed;
+    }
+
+    private PageRenderer getMeasuringRenderer() {
+        synchronized (measuredPageSizes) {
+            if (measuringRenderer == null && !measuringFinished) {
+                try {
+                    measuringRenderer = fileDescriptor != null
+                            ? new PageRenderer(new PdfRenderer(fileDescriptor.dup())) : pageRenderer;
+                } catch (IOException | RuntimeException e) {
+                    // share the renderer of the first worker, it's synchronized
+                    measuringRenderer = pageRenderer;
+                }
+            }
+            return measuringRenderer;
+        }
+    }
+
+    private void closeMeasuringRenderer() {
+        synchronized (measuredPageSizes) {
+            if (measuringRenderer != null && measuringRenderer != pageRenderer) {
+                measuringRenderer.close();
+            }
+            measuringRenderer = null;
+            measuringFinished = true;
+        }
+    }
+
+    /**
+     * @return identity of the document, or null if it's not available
+     */
+    DocumentFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
     public int getPagesCount() {
         return pagesCount;
     }
@@ -152,7 +412,7 @@ class PdfFile {
     public SizeF getPageSizeF(int pageIndex) {
         int docPage = documentPage(pageIndex);
         if (docPage < 0) {
-            return new SizeF(0, 0);
+            return EMPTY_SIZE;
         }
         return pageSizes.get(pageIndex);
     }
@@ -180,7 +440,9 @@ class PdfFile {
     }
 
     private void prepareAutoSpacing(Size viewSize) {
-        pageSpacing.clear();
+        if (pageSpacing.length != getPagesCount()) {
+            pageSpacing = new float[getPagesCount()];
+        }
         for (int i = 0; i < getPagesCount(); i++) {
             SizeF pageSize = pageSizes.get(i);
             float spacing = Math.max(0, isVertical ? viewSize.getHeight() - pageSize.getHeight() :
@@ -188,7 +450,7 @@ class PdfFile {
             if (i < getPagesCount() - 1) {
                 spacing += spacingPx;
             }
-            pageSpacing.add(spacing);
+            pageSpacing[i] = spacing;
         }
     }
 
@@ -198,7 +460,7 @@ class PdfFile {
             SizeF pageSize = pageSizes.get(i);
             length += isVertical ? pageSize.getHeight() : pageSize.getWidth();
             if (autoSpacing) {
-                length += pageSpacing.get(i);
+                length += pageSpacing[i];
             } else if (i < getPagesCount() - 1) {
                 length += spacingPx;
             }
@@ -207,22 +469,24 @@ class PdfFile {
     }
 
     private void preparePagesOffset() {
-        pageOffsets.clear();
+        if (pageOffsets.length != getPagesCount()) {
+            pageOffsets = new float[getPagesCount()];
+        }
         float offset = 0;
         for (int i = 0; i < getPagesCount(); i++) {
             SizeF pageSize = pageSizes.get(i);
             float size = isVertical ? pageSize.getHeight() : pageSize.getWidth();
             if (autoSpacing) {
-                offset += pageSpacing.get(i) / 2f;
+                offset += pageSpacing[i] / 2f;
                 if (i == 0) {
                     offset -= spacingPx / 2f;
                 } else if (i == getPagesCount() - 1) {
                     offset += spacingPx / 2f;
                 }
-                pageOffsets.add(offset);
-                offset += size + pageSpacing.get(i) / 2f;
+                pageOffsets[i] = offset;
+                offset += size + pageSpacing[i] / 2f;
             } else {
-                pageOffsets.add(offset);
+                pageOffsets[i] = offset;
                 offset += size + spacingPx;
             }
         }
@@ -241,7 +505,7 @@ class PdfFile {
     }
 
     public float getPageSpacing(int pageIndex, float zoom) {
-        float spacing = autoSpacing ? pageSpacing.get(pageIndex) : spacingPx;
+        float spacing = autoSpacing ? pageSpacing[pageIndex] : spacingPx;
         return spacing * zoom;
     }
 
@@ -251,7 +515,7 @@ class PdfFile {
         if (docPage < 0) {
             return 0;
         }
-        return pageOffsets.get(pageIndex) * zoom;
+        return pageOffsets[pageIndex] * zoom;
     }
 
     /** Get secondary page offset, that is X for vertical scroll and Y for horizontal scroll */
@@ -266,42 +530,67 @@ class PdfFile {
         }
     }
 
+    /**
+     * Binary search for the last page starting before the offset, page starts at the middle
+     * of the spacing in front of it. Starts grow with page index, as offsets are a running sum.
+     */
     public int getPageAtOffset(float offset, float zoom) {
+        int low = 0;
+        int high = getPagesCount() - 1;
         int currentPage = 0;
-        for (int i = 0; i < getPagesCount(); i++) {
-            float off = pageOffsets.get(i) * zoom - getPageSpacing(i, zoom) / 2f;
-            if (off >= offset) {
-                break;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (getPageStart(middle, zoom) < offset) {
+                currentPage = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
             }
-            currentPage++;
         }
-        return --currentPage >= 0 ? currentPage : 0;
+        return currentPage;
     }
 
-    public boolean openPage(int pageIndex) throws PageRenderingException {
-        return getPage(documentPage(pageIndex)) != null;
+    private float getPageStart(int pageIndex, float zoom) {
+        return pageOffsets[pageIndex] * zoom - getPageSpacing(pageIndex, zoom) / 2f;
     }
 
-    public boolean pageHasError(int pageIndex) {
-        return getPage(documentPage(pageIndex)) == null;
+    /**
+     * @return renderers available for rendering workers, at least one
+     */
+    List<PageRenderer> getPageRenderers() {
+        return pageRenderers;
     }
 
-    public void renderPageBitmap(Bitmap bitmap, int pageIndex, Rect bounds) {
-        PdfRenderer.Page page = getPage(documentPage(pageIndex));
-        float scaleX = ((float)bounds.width())/page.getWidth();
-        float scaleY = ((float)bounds.height())/page.getHeight();
-        renderMatrix.reset();
-        renderMatrix.setScale(scaleX, scaleY);
-        renderMatrix.postTranslate(bounds.left, bounds.top);
-        page.render(bitmap, null, renderMatrix, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+    public boolean openPage(PageRenderer renderer, int pageIndex) throws PageRenderingException {
+        int docPage = documentPage(pageIndex);
+        if (docPage < 0) {
+            return false;
+        }
+        try {
+            return renderer.openPage(docPage);
+        } catch (RuntimeException e) {
+            throw new PageRenderingException(pageIndex, e);
+        }
+    }
+
+    public void renderPageBitmap(PageRenderer renderer, Bitmap bitmap, int pageIndex, Rect bounds) {
+        renderer.renderPageBitmap(bitmap, documentPage(pageIndex), bounds);
     }
 
     public void dispose() {
-        pdfRenderer.close();
-        originalUserPages = null;
-        if (currentOpenPage != null) {
-            currentOpenPage.close();
+        closeMeasuringRenderer();
+        for (PageRenderer renderer : pageRenderers) {
+            renderer.close();
         }
+        pageRenderers.clear();
+        if (fileDescriptor != null) {
+            try {
+                fileDescriptor.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot close document", e);
+            }
+        }
+        originalUserPages = null;
     }
 
     /**
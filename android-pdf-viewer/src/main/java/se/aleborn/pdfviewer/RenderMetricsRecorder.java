@@ -0,0 +1,46 @@
+package se.aleborn.pdfviewer;
+
+import se.aleborn.pdfviewer.model.RenderMetrics;
+import se.aleborn.pdfviewer.util.Constants;
+import se.aleborn.pdfviewer.util.RollingHistogram;
+
+/**
+ * Records latency of the stages of rendering tiles when render metrics are enabled, used on the UI thread only.
+ * Times are measured by workers, see {@link RenderingHandler}, and recorded once a tile is cached.
+ */
+class RenderMetricsRecorder {
+
+    private final PDFView pdfView;
+
+    private final RollingHistogram queueWait = new RollingHistogram(Constants.RENDER_METRICS_WINDOW);
+    private final RollingHistogram allocation = new RollingHistogram(Constants.RENDER_METRICS_WINDOW);
+    private final RollingHistogram render = new RollingHistogram(Constants.RENDER_METRICS_WINDOW);
+    private final RollingHistogram postDelay = new RollingHistogram(Constants.RENDER_METRICS_WINDOW);
+    private final RollingHistogram total = new RollingHistogram(Constants.RENDER_METRICS_WINDOW);
+
+    private long tiles = 0;
+
+    RenderMetricsRecorder(PDFView pdfView) {
+        this.pdfView = pdfView;
+    }
+
+    /**
+     * Record times of a full quality tile, in nanoseconds
+     */
+    void record(long queueWait, long allocation, long render, long postDelay, long total) {
+        tiles++;
+        this.queueWait.add(queueWait / 1000);
+        this.allocation.add(allocation / 1000);
+        this.render.add(render / 1000);
+        this.postDelay.add(postDelay / 1000);
+        this.total.add(total / 1000);
+        if (tiles % Constants.RENDER_METRICS_WINDOW == 0 && pdfView.callbacks.getOnRenderMetrics() != null) {
+            pdfView.callbacks.callOnRenderMetrics(getMetrics());
+        }
+    }
+
+    RenderMetrics getMetrics() {
+        return new RenderMetrics(tiles, queueWait.getPercentiles(), allocation.getPercentiles(),
+                render.getPercentiles(), postDelay.getPercentiles(), total.getPercentiles());
+    }
+}
@@ -0,0 +1,376 @@
+package se.aleborn.pdfviewer;
+
+import android.graphics.RectF;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queue of {@link RenderingTask}s shared by all rendering workers.
+ * <p>
+ * Tasks are ordered by priority class and, within a class, by distance from the viewport center.
+ * {@link PagesLoader} builds a new plan each time the viewport changes: tasks requested again are
+ * updated, tasks which are no longer requested are moved to the preload class
+ * (and dropped after a few plans), and the whole queue is ordered again for the new viewport.
+ * Queued tasks are only changed when the plan ends, so the queue stays ordered while workers take tasks.
+ * <p>
+ * While a fling is in progress, a plan may also request tiles of the viewport the fling will land on.
+ * They are kept in a separate area, which is cleared if the fling is stopped before it lands.
+ * <p>
+ * Tasks stay registered while a worker renders them, so a request for a part which is queued
+ * or being rendered is merged with it. A task which doesn't intersect the area of the latest plan
+ * any more is skipped when it is taken from the queue.
+ * <p>
+ * A worker asks for a task of the page it has open first, as long as the task is in the best priority
+ * class, so tiles of one page are rendered in a batch instead of reopening pages for every tile.
+ */
+class RenderQueue {
+
+    /** Tasks not requested by this many consecutive plans are dropped */
+    private static final int MAX_PLAN_AGE = 8;
+
+    /** Sorted so that the best task is the last one */
+    private final List<RenderingTask> tasks = new ArrayList<>();
+
+    /** Tasks added to the current plan, queued when the plan ends */
+    private final List<RenderingTask> planned = new ArrayList<>();
+
+    private final Map<RenderingTask, RenderingTask> index = new HashMap<>();
+
+    private final TaskComparator comparator = new TaskComparator();
+
+    private int plan = 0;
+
+    private long sequence = 0;
+
+    /** Area loaded by the latest plan, in document coordinates at zoom 1 */
+    private final RectF loadedArea = new RectF();
+
+    /** Viewport a fling will land on, in document coordinates at zoom 1, empty if there is none */
+    private final RectF landingArea = new RectF();
+
+    private float viewportCenterX, viewportCenterY;
+
+    /** Direction of scrolling in document coordinates, tasks ahead of the viewport come first */
+    private float directionX, directionY;
+
+    /** Requests merged with a task already queued or being rendered */
+    private long deduplicatedTasks = 0;
+
+    /** Tasks skipped because they didn't intersect the loaded area any more */
+    private long cancelledTasks = 0;
+
+    /** Registered tiles of the visible priority class, queued or being rendered */
+    private int visibleTasks = 0;
+
+    /** Sum and count of times from queuing a task to rendering its draft, in ms */
+    private long draftTimeTotal = 0;
+    private long draftCount = 0;
+
+    /** Sum and count of times from queuing a task to rendering it in full quality, in ms */
+    private long finalTimeTotal = 0;
+    private long finalCount = 0;
+
+    /**
+     * Start a new plan, all coordinates are in document coordinates at zoom 1
+     *
+     * @param viewport   visible area of the view
+     * @param loadedArea  area for which tasks are requested, including preloaded margins
+     * @param landingArea viewport a fling will land on, or an empty rect
+     */
+    synchronized void beginPlan(RectF viewport, RectF loadedArea, RectF landingArea,
+                                float directionX, float directionY) {
+        plan++;
+        viewportCenterX = viewport.centerX();
+        viewportCenterY = viewport.centerY();
+        this.loadedArea.set(loadedArea);
+        this.landingArea.set(landingArea);
+        this.directionX = directionX;
+        this.directionY = directionY;
+    }
+
+    /**
+     * Add task to the current plan, the already queued one is updated when the plan ends
+     * if it describes the same part
+     */
+    synchronized void add(RenderingTask task) {
+        RenderingTask queued = index.get(task);
+        if (queued != null) {
+            deduplicatedTasks++;
+            // a task being rendered stays requested by this plan as well,
+            // so a draft put back to the queue isn't demoted or dropped as an old one
+            queued.update = task;
+            queued.plan = plan;
+            return;
+        }
+        task.plan = plan;
+        task.sequence = sequence++;
+        task.queuedTime = SystemClock.uptimeMillis();
+        task.queuedNanos = System.nanoTime();
+        task.passQueuedNanos = task.queuedNanos;
+        register(task);
+        planned.add(task);
+    }
+
+    /**
+     * Order the queue for the viewport of the current plan
+     */
+    synchronized void endPlan() {
+        tasks.addAll(planned);
+        planned.clear();
+        for (RenderingTask task : index.values()) {
+            if (task.update != null) {
+                applyUpdate(task);
+            }
+        }
+        Iterator<RenderingTask> iterator = tasks.iterator();
+        while (iterator.hasNext()) {
+            RenderingTask task = iterator.next();
+            if (plan - task.plan > MAX_PLAN_AGE) {
+                iterator.remove();
+                unregister(task);
+                continue;
+            }
+            if (task.plan != plan) {
+                setPriority(task, RenderingTask.PRIORITY_PRELOAD);
+            }
+            task.distance = distance(task);
+        }
+        Collections.sort(tasks, comparator);
+    }
+
+    private void applyUpdate(RenderingTask task) {
+        RenderingTask update = task.update;
+        task.update = null;
+        setPriority(task, update.priority);
+        task.documentBounds = update.documentBounds;
+        if (task.inFlight) {
+            // render parameters are in use by the worker
+            return;
+        }
+        task.width = update.width;
+        task.height = update.height;
+        task.cacheOrder = update.cacheOrder;
+        task.bestQuality = update.bestQuality;
+    }
+
+    /**
+     * Take the best task which still intersects the loaded area, it stays registered
+     * until {@link #finish(RenderingTask)} is called
+     *
+     * @param openPage document page currently open in the worker's renderer, or -1;
+     *                 its tasks are preferred within the best priority class
+     */
+    synchronized RenderingTask poll(int openPage) {
+        while (!tasks.isEmpty()) {
+            int last = tasks.size() - 1;
+            RenderingTask task = tasks.get(last);
+            if (!isRequested(task)) {
+                tasks.remove(last);
+                unregister(task);
+                cancelledTasks++;
+                continue;
+            }
+            int position = last;
+            if (openPage >= 0 && task.documentPage != openPage) {
+                position = findTaskOfPage(openPage, task.priority, task.drafted, last - 1);
+                if (position < 0) {
+                    position = last;
+                }
+            }
+            task = tasks.remove(position);
+            task.inFlight = true;
+            task.polledNanos = System.nanoTime();
+            task.allocationNanos = 0;
+            return task;
+        }
+        return null;
+    }
+
+    /**
+     * @return position of the best task of given document page in given priority class and draft state, or -1;
+     * drafts of other tiles stay ahead of full passes
+     */
+    private int findTaskOfPage(int documentPage, int priority, boolean drafted, int from) {
+        for (int i = from; i >= 0; i--) {
+            RenderingTask task = tasks.get(i);
+            if (task.priority != priority || task.drafted != drafted) {
+                return -1;
+            }
+            if (task.documentPage == documentPage && isRequested(task)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isRequested(RenderingTask task) {
+        return RectF.intersects(loadedArea, task.documentBounds)
+                || (!landingArea.isEmpty() && RectF.intersects(landingArea, task.documentBounds));
+    }
+
+    /**
+     * Drop tiles requested for the landing viewport of a fling which has been stopped,
+     * they're skipped when taken from the queue
+     */
+    synchronized void clearLandingArea() {
+        landingArea.setEmpty();
+    }
+
+    /**
+     * Put task back to the queue after its draft has been rendered, so the full pass is rendered later
+     */
+    synchronized void requeue(RenderingTask task) {
+        recordDraft(task);
+        if (index.get(task) != task) {
+            // queue has been cleared
+            return;
+        }
+        task.inFlight = false;
+        task.drafted = true;
+        task.passQueuedNanos = System.nanoTime();
+        // the queue may have been ordered for another viewport while the draft was rendered
+        if (task.plan != plan) {
+            setPriority(task, RenderingTask.PRIORITY_PRELOAD);
+        }
+        task.distance = distance(task);
+        int position = Collections.binarySearch(tasks, task, comparator);
+        tasks.add(position < 0 ? -position - 1 : position, task);
+    }
+
+    private void recordDraft(RenderingTask task) {
+        draftTimeTotal += SystemClock.uptimeMillis() - task.queuedTime;
+        draftCount++;
+    }
+
+    /**
+     * Record time to render the task in full quality
+     */
+    synchronized void recordFinal(RenderingTask task) {
+        finalTimeTotal += SystemClock.uptimeMillis() - task.queuedTime;
+        finalCount++;
+    }
+
+    /**
+     * @return average time from queuing a task to rendering its draft in ms, 0 if there are none
+     */
+    synchronized long getAverageTimeToDraft() {
+        return draftCount > 0 ? draftTimeTotal / draftCount : 0;
+    }
+
+    /**
+     * @return average time from queuing a task to rendering it in full quality in ms, 0 if there are none
+     */
+    synchronized long getAverageTimeToFinal() {
+        return finalCount > 0 ? finalTimeTotal / finalCount : 0;
+    }
+
+    /**
+     * Unregister task taken by {@link #poll(int)} after it has been rendered
+     */
+    synchronized void finish(RenderingTask task) {
+        if (index.get(task) == task) {
+            unregister(task);
+        }
+    }
+
+    synchronized long getDeduplicatedTasks() {
+        return deduplicatedTasks;
+    }
+
+    synchronized long getCancelledTasks() {
+        return cancelledTasks;
+    }
+
+    /**
+     * @return true if a visible tile is queued or being rendered
+     */
+    synchronized boolean hasVisibleTasks() {
+        return visibleTasks > 0;
+    }
+
+    synchronized boolean isEmpty() {
+        return tasks.isEmpty();
+    }
+
+    synchronized void clear() {
+        tasks.clear();
+        planned.clear();
+        index.clear();
+        visibleTasks = 0;
+    }
+
+    private void register(RenderingTask task) {
+        index.put(task, task);
+        if (isVisibleTile(task)) {
+            visibleTasks++;
+        }
+    }
+
+    private void unregister(RenderingTask task) {
+        index.remove(task);
+        if (isVisibleTile(task)) {
+            visibleTasks--;
+        }
+    }
+
+    /**
+     * Change priority of a registered task, keeping the count of visible tiles
+     */
+    private void setPriority(RenderingTask task, int priority) {
+        if (isVisibleTile(task)) {
+            visibleTasks--;
+        }
+        task.priority = priority;
+        if (isVisibleTile(task)) {
+            visibleTasks++;
+        }
+    }
+
+    private static boolean isVisibleTile(RenderingTask task) {
+        return !task.thumbnail && task.priority == RenderingTask.PRIORITY_VISIBLE;
+    }
+
+    private float distance(RenderingTask task) {
+        if (task.priority == RenderingTask.PRIORITY_LANDING) {
+            float dx = task.documentBounds.centerX() - landingArea.centerX();
+            float dy = task.documentBounds.centerY() - landingArea.centerY();
+            return (float) Math.sqrt(dx * dx + dy * dy);
+        }
+        float dx = task.documentBounds.centerX() - viewportCenterX;
+        float dy = task.documentBounds.centerY() - viewportCenterY;
+        float distance = (float) Math.sqrt(dx * dx + dy * dy);
+        if (task.priority == RenderingTask.PRIORITY_PRELOAD && dx * directionX + dy * directionY > 0) {
+            // tiles in the direction of scrolling are needed sooner
+            distance /= 2;
+        }
+        return distance;
+    }
+
+    /** Orders tasks from the worst to the best one */
+    private static class TaskComparator implements Comparator<RenderingTask> {
+        @Override
+        public int compare(RenderingTask task1, RenderingTask task2) {
+            if (task1.priority != task2.priority) {
+                return task1.priority > task2.priority ? -1 : 1;
+            }
+            // drafts of other tasks come before full passes
+            if (task1.drafted != task2.drafted) {
+                return task1.drafted ? -1 : 1;
+            }
+            if (task1.distance != task2.distance) {
+                return task1.distance > task2.distance ? -1 : 1;
+            }
+            if (task1.sequence == task2.sequence) {
+                return 0;
+            }
+            return task1.sequence > task2.sequence ? -1 : 1;
+        }
+    }
+}
@@ -16,25 +16,34 @@
 package se.aleborn.pdfviewer;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.Trace;
 import android.util.Log;
 
 import se.aleborn.pdfviewer.exception.PageRenderingException;
 import se.aleborn.pdfviewer.model.PagePart;
+import se.aleborn.pdfviewer.util.Constants;
 
 /**
- * A {@link Handler} that will process incoming {@link RenderingTask} messages
- * and alert {@link PDFView#onBitmapRendered(PagePart)} when the portion of the
+ * A {@link Handler} that will take the best {@link RenderingTask} from the shared {@link RenderQueue}
+ * on each incoming message and alert {@link PDFView#onBitmapRendered(PagePart)} when the portion of the
  * PDF is ready to render.
+ * <p>
+ * Every rendering worker of {@link RenderingPool} runs its own handler with its own {@link PageRenderer}.
+ * <p>
+ * Stages of a task are emitted as {@link Trace} sections, and their times are passed to
+ * {@link PDFView#recordRenderTimes(long, long, long, long, long)} with the rendered part.
  */
 class RenderingHandler extends Handler {
     /**
-     * {@link Message#what} kind of message this handler processes.
+     * {@link Message#what} kind of message this handler processes, it only wakes the handler up.
      */
     static final int MSG_RENDER_TASK = 1;
 
@@ -42,40 +51,102 @@ class RenderingHandler extends Handler {
 
     private PDFView pdfView;
 
+    private final PageRenderer pageRenderer;
+
+    private final RenderQueue renderQueue;
+
     private RectF renderBounds = new RectF();
     private Rect roundedRenderBounds = new Rect();
     private Matrix renderMatrix = new Matrix();
-    private boolean running = false;
 
-    RenderingHandler(Looper looper, PDFView pdfView) {
+    /** Buffer the page is rendered to before it's copied to a RGB_565 bitmap, used only by this worker */
+    private Bitmap renderBuffer;
+    private Canvas bufferCanvas = new Canvas();
+    private Rect contentRect = new Rect();
+    private volatile boolean running = false;
+
+    RenderingHandler(Looper looper, PDFView pdfView, RenderQueue renderQueue, PageRenderer pageRenderer) {
         super(looper);
         this.pdfView = pdfView;
+        this.renderQueue = renderQueue;
+        this.pageRenderer = pageRenderer;
     }
 
-    void addRenderingTask(int page, float width, float height, RectF bounds, boolean thumbnail, int cacheOrder, boolean bestQuality, boolean annotationRendering) {
-        RenderingTask task = new RenderingTask(width, height, bounds, page, thumbnail, cacheOrder, bestQuality);
-        Message msg = obtainMessage(MSG_RENDER_TASK, task);
-        sendMessage(msg);
+    /**
+     * Make sure the handler will look into the queue
+     */
+    void wakeUp() {
+        if (!hasMessages(MSG_RENDER_TASK)) {
+            sendEmptyMessage(MSG_RENDER_TASK);
+        }
     }
 
     @Override
     public void handleMessage(Message message) {
-        RenderingTask task = (RenderingTask) message.obj;
+        if (!running) {
+            return;
+        }
+        final RenderingTask task = renderQueue.poll(pageRenderer.getOpenPage());
+        if (task == null) {
+            return;
+        }
+        // in progressive mode visible tiles are rendered as a draft first
+        boolean draft = pdfView.isProgressiveRendering() && !task.thumbnail && !task.drafted
+                && task.priority == RenderingTask.PRIORITY_VISIBLE;
         try {
-            final PagePart part = proceed(task);
+            long start = System.nanoTime();
+            final PagePart part;
+            Trace.beginSection("PDF render task");
+            try {
+                part = proceed(task, draft);
+            } finally {
+                Trace.endSection();
+                task.renderNanos = System.nanoTime() - start - task.allocationNanos;
+            }
             if (part != null) {
-                if (running) {
-                    pdfView.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            pdfView.onBitmapRendered(part);
+                part.setKey(task.key);
+                part.setSharedKey(task.sharedKey);
+            }
+            if (part != null && running && part.isDraft()) {
+                pdfView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        pdfView.onBitmapRendered(part);
+                    }
+                });
+                // the task stays registered until its full pass is rendered
+                renderQueue.requeue(task);
+            } else if (part != null && running) {
+                if (!task.thumbnail) {
+                    renderQueue.recordFinal(task);
+                }
+                // times are copied, as the task may be requested and rendered again before the part is cached
+                final long queueWait = task.polledNanos - task.passQueuedNanos;
+                final long allocation = task.allocationNanos;
+                final long render = task.renderNanos;
+                final long queued = task.queuedNanos;
+                final long posted = System.nanoTime();
+                pdfView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        long delivered = System.nanoTime();
+                        pdfView.onBitmapRendered(part);
+                        // unregister only once cached, so the part isn't requested again in the meantime
+                        renderQueue.finish(task);
+                        if (!part.isThumbnail()) {
+                            pdfView.recordRenderTimes(queueWait, allocation, render, delivered - posted,
+                                    System.nanoTime() - queued);
                         }
-                    });
-                } else {
-                    part.getRenderedBitmap().recycle();
+                    }
+                });
+            } else {
+                if (part != null) {
+                    pdfView.bitmapPool.release(part.getRenderedBitmap());
                 }
+                renderQueue.finish(task);
             }
         } catch (final PageRenderingException ex) {
+            renderQueue.finish(task);
             pdfView.post(new Runnable() {
                 @Override
                 public void run() {
@@ -83,33 +154,177 @@ class RenderingHandler extends Handler {
                 }
             });
         }
+        // one task per message, so the looper can quit between tasks
+        if (!renderQueue.isEmpty()) {
+            wakeUp();
+        }
     }
 
-    private PagePart proceed(RenderingTask renderingTask) throws PageRenderingException {
+    /**
+     * @param draft render the part at {@link Constants#DRAFT_SCALE} of its size,
+     *              unless it's found in the shared or disk cache
+     */
+    private PagePart proceed(RenderingTask renderingTask, boolean draft) throws PageRenderingException {
         PdfFile pdfFile = pdfView.pdfFile;
-        pdfFile.openPage(renderingTask.page);
+        if (pdfFile == null) {
+            return null;
+        }
 
         int w = Math.round(renderingTask.width);
         int h = Math.round(renderingTask.height);
 
-        if (w == 0 || h == 0 || pdfFile.pageHasError(renderingTask.page)) {
+        if (w == 0 || h == 0) {
             return null;
         }
 
+        // tiles are normalised to the standard part size, so edge tiles can reuse pooled bitmaps too
+        int bitmapWidth = w;
+        int bitmapHeight = h;
+        if (!renderingTask.thumbnail) {
+            int partSize = BitmapPool.getPartBitmapSize();
+            bitmapWidth = Math.max(w, partSize);
+            bitmapHeight = Math.max(h, partSize);
+        }
+
+        Bitmap.Config config = renderingTask.bestQuality ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
         Bitmap render;
         try {
-            render = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-        } catch (IllegalArgumentException e) {
+            render = acquire(renderingTask, bitmapWidth, bitmapHeight, config);
+        } catch (IllegalArgumentException | OutOfMemoryError e) {
             Log.e(TAG, "Cannot create bitmap", e);
             return null;
         }
+
+        // parts cached by other views or stored on disk are copied without opening the page
+        DocumentFingerprint fingerprint = pdfFile.getFingerprint();
+        int docPage = pdfFile.documentPage(renderingTask.page);
+        DiskTileCache diskTileCache = pdfView.diskTileCache;
+        SharedTileCache sharedTileCache = pdfView.sharedTileCache;
+        ThumbnailStore thumbnailStore = renderingTask.thumbnail ? pdfView.thumbnailStore : null;
+        String diskKey = null;
+        if (fingerprint != null && sharedTileCache != null && !renderingTask.thumbnail) {
+            renderingTask.sharedKey = DiskTileCache.key(fingerprint, docPage,
+                    renderingTask.zoom, renderingTask.bounds, renderingTask.bestQuality);
+            // checked before drafting, a part held by another view is copied in full quality at once
+            if (sharedTileCache.read(renderingTask.sharedKey, render, bufferCanvas, contentRect)) {
+                return new PagePart(renderingTask.page, render,
+                        renderingTask.bounds, renderingTask.thumbnail,
+                        renderingTask.cacheOrder, contentRect.width(), contentRect.height(), renderingTask.zoom);
+            }
+        }
+        if (fingerprint != null && diskTileCache != null && !renderingTask.thumbnail) {
+            diskKey = renderingTask.sharedKey != null ? renderingTask.sharedKey : DiskTileCache.key(fingerprint,
+                    docPage, renderingTask.zoom, renderingTask.bounds, renderingTask.bestQuality);
+            if (diskTileCache.read(diskKey, render, contentRect)) {
+                return new PagePart(renderingTask.page, render,
+                        renderingTask.bounds, renderingTask.thumbnail,
+                        renderingTask.cacheOrder, contentRect.width(), contentRect.height(), renderingTask.zoom);
+            }
+        }
+        if (fingerprint != null && thumbnailStore != null
+                && thumbnailStore.read(fingerprint, docPage, render, contentRect)) {
+            return new PagePart(renderingTask.page, render,
+                    renderingTask.bounds, renderingTask.thumbnail,
+                    renderingTask.cacheOrder, contentRect.width(), contentRect.height(), renderingTask.zoom);
+        }
+
+        if (draft) {
+            // draft is rendered at reduced size into a smaller bitmap
+            pdfView.bitmapPool.release(render);
+            w = Math.max(1, Math.round(w * Constants.DRAFT_SCALE));
+            h = Math.max(1, Math.round(h * Constants.DRAFT_SCALE));
+            bitmapWidth = Math.max(1, Math.round(bitmapWidth * Constants.DRAFT_SCALE));
+            bitmapHeight = Math.max(1, Math.round(bitmapHeight * Constants.DRAFT_SCALE));
+            try {
+                render = acquire(renderingTask, bitmapWidth, bitmapHeight, config);
+            } catch (IllegalArgumentException | OutOfMemoryError e) {
+                Log.e(TAG, "Cannot create bitmap", e);
+                return null;
+            }
+        }
+
+        try {
+            if (!pdfFile.openPage(pageRenderer, renderingTask.page)) {
+                pdfView.bitmapPool.release(render);
+                return null;
+            }
+            if (config != Bitmap.Config.ARGB_8888) {
+                prepareRenderBuffer(bitmapWidth, bitmapHeight);
+            }
+        } catch (IllegalArgumentException | OutOfMemoryError e) {
+            Log.e(TAG, "Cannot create bitmap", e);
+            pdfView.bitmapPool.release(render);
+            return null;
+        } catch (PageRenderingException e) {
+            pdfView.bitmapPool.release(render);
+            throw e;
+        }
         calculateBounds(w, h, renderingTask.bounds);
 
-        pdfFile.renderPageBitmap(render, renderingTask.page, roundedRenderBounds);
+        Trace.beginSection("PDF render page");
+        try {
+            if (config == Bitmap.Config.ARGB_8888) {
+                pdfFile.renderPageBitmap(pageRenderer, render, renderingTask.page, roundedRenderBounds);
+            } else {
+                // PdfRenderer only renders to ARGB_8888, so render opaque page on white and copy it
+                renderBuffer.eraseColor(Color.WHITE);
+                pdfFile.renderPageBitmap(pageRenderer, renderBuffer, renderingTask.page, roundedRenderBounds);
+                contentRect.set(0, 0, w, h);
+                bufferCanvas.setBitmap(render);
+                bufferCanvas.drawBitmap(renderBuffer, contentRect, contentRect, null);
+                bufferCanvas.setBitmap(null);
+            }
+        } finally {
+            Trace.endSection();
+        }
+
+        if (draft) {
+            PagePart part = new PagePart(renderingTask.page, render,
+                    renderingTask.bounds, renderingTask.thumbnail,
+                    renderingTask.cacheOrder, w, h, renderingTask.zoom);
+            part.setDraft(true);
+            return part;
+        }
+
+        if (diskKey != null) {
+            diskTileCache.write(diskKey, render, w, h, pdfView.bitmapPool);
+        } else if (fingerprint != null && thumbnailStore != null) {
+            thumbnailStore.write(fingerprint, docPage, render, w, h, pdfView.bitmapPool);
+        }
 
         return new PagePart(renderingTask.page, render,
                 renderingTask.bounds, renderingTask.thumbnail,
-                renderingTask.cacheOrder);
+                renderingTask.cacheOrder, w, h, renderingTask.zoom);
+    }
+
+    /**
+     * Acquire a bitmap from the pool, adding the time spent to the task
+     */
+    private Bitmap acquire(RenderingTask renderingTask, int width, int height, Bitmap.Config config) {
+        long start = System.nanoTime();
+        Trace.beginSection("PDF acquire bitmap");
+        try {
+            return pdfView.bitmapPool.acquire(width, height, config);
+        } finally {
+            Trace.endSection();
+            renderingTask.allocationNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Make sure the ARGB_8888 buffer used for low memory rendering is big enough
+     */
+    private void prepareRenderBuffer(int width, int height) {
+        if (renderBuffer != null && renderBuffer.getWidth() >= width && renderBuffer.getHeight() >= height) {
+            return;
+        }
+        if (renderBuffer != null) {
+            width = Math.max(width, renderBuffer.getWidth());
+            height = Math.max(height, renderBuffer.getHeight());
+            renderBuffer.recycle();
+            renderBuffer = null;
+        }
+        renderBuffer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
     }
 
     private void calculateBounds(int width, int height, RectF pageSliceBounds) {
@@ -129,29 +344,4 @@ class RenderingHandler extends Handler {
     void start() {
         running = true;
     }
-
-    private class RenderingTask {
-
-        float width, height;
-
-        RectF bounds;
-
-        int page;
-
-        boolean thumbnail;
-
-        int cacheOrder;
-
-        boolean bestQuality;
-
-        RenderingTask(float width, float height, RectF bounds, int page, boolean thumbnail, int cacheOrder, boolean bestQuality) {
-            this.page = page;
-            this.width = width;
-            this.height = height;
-            this.bounds = bounds;
-            this.thumbnail = thumbnail;
-            this.cacheOrder = cacheOrder;
-            this.bestQuality = bestQuality;
-        }
-    }
 }
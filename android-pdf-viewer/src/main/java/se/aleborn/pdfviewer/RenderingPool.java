@@ -0,0 +1,176 @@
+package se.aleborn.pdfviewer;
+
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.HandlerThread;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of rendering workers. Each worker is a {@link RenderingHandler} running on its own thread
+ * with its own {@link PageRenderer}, so tiles can be rendered in parallel.
+ * All workers take tasks from one {@link RenderQueue}, so the most important tile is always rendered first.
+ * Threads are kept between documents, handlers are created for every loaded document.
+ */
+class RenderingPool {
+
+    private final RenderQueue renderQueue = new RenderQueue();
+
+    private final List<HandlerThread> threads = new ArrayList<>();
+
+    private final List<RenderingHandler> handlers = new ArrayList<>();
+
+    private final List<PageRenderer> renderers = new ArrayList<>();
+
+    /** Document rendered by the handlers, null if they're stopped */
+    private PdfFile pdfFile;
+
+    /**
+     * Create handlers for the renderers of the given document, starting more threads if needed
+     */
+    void start(PDFView pdfView, PdfFile pdfFile) {
+        stop();
+        List<PageRenderer> renderers = pdfFile.getPageRenderers();
+        while (threads.size() < renderers.size()) {
+            HandlerThread thread = new HandlerThread("PDF renderer " + threads.size());
+            thread.start();
+            threads.add(thread);
+        }
+        for (int i = 0; i < renderers.size(); i++) {
+            RenderingHandler handler = new RenderingHandler(threads.get(i).getLooper(), pdfView, renderQueue,
+                    renderers.get(i));
+            handler.start();
+            handlers.add(handler);
+        }
+        this.renderers.addAll(renderers);
+        this.pdfFile = pdfFile;
+    }
+
+    boolean isStarted() {
+        return !handlers.isEmpty();
+    }
+
+    int getWorkerCount() {
+        return handlers.size();
+    }
+
+    /**
+     * Start a new set of tasks for the given viewport and scrolling direction,
+     * in document coordinates at zoom 1
+     *
+     * @see RenderQueue#beginPlan(RectF, RectF, RectF, float, float)
+     */
+    void beginPlan(RectF viewport, RectF loadedArea, RectF landingArea, float directionX, float directionY) {
+        renderQueue.beginPlan(viewport, loadedArea, landingArea, directionX, directionY);
+    }
+
+    /**
+     * @see RenderQueue#clearLandingArea()
+     */
+    void clearLandingArea() {
+        renderQueue.clearLandingArea();
+    }
+
+    void addRenderingTask(int page, float width, float height, RectF bounds, boolean thumbnail, int cacheOrder,
+                          boolean bestQuality, boolean annotationRendering, int priority, float zoom,
+                          RectF documentBounds, long key) {
+        RenderingTask task = new RenderingTask(width, height, bounds, page, thumbnail, cacheOrder, bestQuality,
+                priority, zoom, documentBounds, key);
+        task.documentPage = pdfFile != null ? pdfFile.documentPage(page) : -1;
+        renderQueue.add(task);
+    }
+
+    /**
+     * Order queued tasks and wake workers up. Results of all workers are posted to the UI thread
+     * and merged into {@link CacheManager} there.
+     */
+    void endPlan() {
+        renderQueue.endPlan();
+        if (renderQueue.isEmpty()) {
+            return;
+        }
+        for (RenderingHandler handler : handlers) {
+            handler.wakeUp();
+        }
+    }
+
+    /**
+     * @return true if visible tiles are queued or being rendered
+     */
+    boolean hasVisibleTasks() {
+        return renderQueue.hasVisibleTasks();
+    }
+
+    long getDeduplicatedTasks() {
+        return renderQueue.getDeduplicatedTasks();
+    }
+
+    long getCancelledTasks() {
+        return renderQueue.getCancelledTasks();
+    }
+
+    long getAverageTimeToDraft() {
+        return renderQueue.getAverageTimeToDraft();
+    }
+
+    long getAverageTimeToFinal() {
+        return renderQueue.getAverageTimeToFinal();
+    }
+
+    /**
+     * @return number of pages opened by all renderers of the current document
+     */
+    long getPageOpens() {
+        long opens = 0;
+        for (PageRenderer renderer : renderers) {
+            opens += renderer.getPageOpens();
+        }
+        return opens;
+    }
+
+    /**
+     * @return number of times renderers of the current document closed a page to open another one
+     */
+    long getPageSwitches() {
+        long switches = 0;
+        for (PageRenderer renderer : renderers) {
+            switches += renderer.getPageSwitches();
+        }
+        return switches;
+    }
+
+    void stop() {
+        for (RenderingHandler handler : handlers) {
+            handler.stop();
+            handler.removeMessages(RenderingHandler.MSG_RENDER_TASK);
+        }
+        handlers.clear();
+        renderers.clear();
+        pdfFile = null;
+        renderQueue.clear();
+    }
+
+    /**
+     * Stop all workers and quit their threads
+     */
+    void quit() {
+        stop();
+        for (HandlerThread thread : threads) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                thread.quitSafely();
+            } else {
+                thread.quit();
+            }
+        }
+        threads.clear();
+    }
+
+    /**
+     * @return default number of workers, one per two cores but at most four
+     */
+    static int defaultWorkerCount() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(4, cores / 2));
+    }
+}
@@ -0,0 +1,125 @@
+package se.aleborn.pdfviewer;
+
+import android.graphics.RectF;
+
+/**
+ * Portion of a page waiting in {@link RenderQueue} to be rendered by one of the workers
+ */
+class RenderingTask {
+
+    /** Tile intersecting the visible area of the view */
+    static final int PRIORITY_VISIBLE = 0;
+
+    /** Thumbnail of a page intersecting the visible area or the preload margin */
+    static final int PRIORITY_THUMBNAIL = 1;
+
+    /** Tile of the viewport a fling will land on */
+    static final int PRIORITY_LANDING = 2;
+
+    /** Tile in the preload margin or in the direction of scrolling */
+    static final int PRIORITY_PRELOAD = 3;
+
+    float width, height;
+
+    RectF bounds;
+
+    int page;
+
+    /** Page of the document rendered for {@link #page}, pages may be remapped or repeated */
+    int documentPage;
+
+    boolean thumbnail;
+
+    int cacheOrder;
+
+    boolean bestQuality;
+
+    /** One of PRIORITY_* constants, lower is rendered first */
+    int priority;
+
+    /** Zoom the task is rendered for, ignored for thumbnails */
+    float zoom;
+
+    /** Area of the task in document coordinates at zoom 1 */
+    RectF documentBounds;
+
+    /** Distance from the viewport center, used to order tasks of the same priority */
+    float distance;
+
+    /** Plan of {@link RenderQueue} which requested this task last */
+    int plan;
+
+    /** Order of insertion, keeps ordering stable for tasks at the same distance */
+    long sequence;
+
+    /** True if the task has been taken by a worker */
+    boolean inFlight;
+
+    /** Same task requested again by the current plan, its values are applied when the plan ends */
+    RenderingTask update;
+
+    /** True if a draft of the task has been rendered in progressive mode, only the full pass is left */
+    boolean drafted;
+
+    /** Time the task was queued, in {@link android.os.SystemClock#uptimeMillis()} */
+    long queuedTime;
+
+    /** Time the task was queued, in {@link System#nanoTime()} */
+    long queuedNanos;
+
+    /** Time the current pass was queued and taken by a worker, in {@link System#nanoTime()} */
+    long passQueuedNanos;
+    long polledNanos;
+
+    /** Time spent by the worker acquiring bitmaps, and producing pixels, in the current pass, in ns */
+    long allocationNanos;
+    long renderNanos;
+
+    /** Key of the rendered part in {@link CacheManager}, 0 for thumbnails */
+    long key;
+
+    /** Key of the rendered part in {@link SharedTileCache}, null if it's not shared */
+    String sharedKey;
+
+    RenderingTask(float width, float height, RectF bounds, int page, boolean thumbnail, int cacheOrder,
+                  boolean bestQuality, int priority, float zoom, RectF documentBounds, long key) {
+        this.page = page;
+        this.width = width;
+        this.height = height;
+        this.bounds = bounds;
+        this.thumbnail = thumbnail;
+        this.cacheOrder = cacheOrder;
+        this.bestQuality = bestQuality;
+        this.priority = priority;
+        this.zoom = zoom;
+        this.documentBounds = documentBounds;
+        this.key = key;
+    }
+
+    /**
+     * Tasks are equal if they describe the same portion of the same page at the same zoom
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof RenderingTask)) {
+            return false;
+        }
+        RenderingTask other = (RenderingTask) obj;
+        return page == other.page && thumbnail == other.thumbnail
+                && (thumbnail || zoom == other.zoom)
+                && bounds.left == other.bounds.left && bounds.top == other.bounds.top
+                && bounds.right == other.bounds.right && bounds.bottom == other.bounds.bottom;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = page;
+        result = 31 * result + (thumbnail ? 1 : 0);
+        result = 31 * result + Float.floatToIntBits(bounds.left);
+        result = 31 * result + Float.floatToIntBits(bounds.top);
+        result = 31 * result + Float.floatToIntBits(bounds.right);
+        result = 31 * result + Float.floatToIntBits(bounds.bottom);
+        result = 31 * result + (thumbnail ? 0 : Float.floatToIntBits(zoom));
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+package se.aleborn.pdfviewer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+import se.aleborn.pdfviewer.model.PagePart;
+import se.aleborn.pdfviewer.util.Constants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide budget for parts cached in memory by several {@link PDFView}s.
+ * <p>
+ * Every {@link CacheManager} which uses the shared cache keeps its own parts, but they are limited
+ * by one byte budget. When it's exceeded, parts are evicted from the cache which takes the most
+ * above its fair share, that is the budget divided by the number of caches.
+ * <p>
+ * Full quality parts are also indexed by document identity, page, zoom and bounds (see
+ * {@link DiskTileCache#key(DocumentFingerprint, int, float, android.graphics.RectF, boolean)}),
+ * so a part rendered by one view is copied by another view showing the same document
+ * instead of being rendered again.
+ */
+class SharedTileCache {
+
+    private static SharedTileCache instance;
+
+    private final List<CacheManager> caches = new ArrayList<>();
+
+    /** Parts of all caches by their shared key */
+    private final Map<String, PagePart> parts = new HashMap<>();
+
+    private long maxBytes;
+
+    private long hits = 0;
+
+    private SharedTileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    static synchronized SharedTileCache get(Context context) {
+        if (instance == null) {
+            instance = new SharedTileCache(CacheManager.defaultSize(context.getApplicationContext(),
+                    Constants.Cache.SHARED_CACHE_MEMORY_FRACTION));
+        }
+        return instance;
+    }
+
+    synchronized void register(CacheManager cache) {
+        if (!caches.contains(cache)) {
+            caches.add(cache);
+        }
+    }
+
+    synchronized void unregister(CacheManager cache) {
+        caches.remove(cache);
+    }
+
+    synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return part of the budget each cache is entitled to
+     */
+    synchronized long getFairShare() {
+        return maxBytes / Math.max(1, caches.size());
+    }
+
+    /**
+     * Evict parts until given number of bytes fits in the budget, from caches taking the most
+     * above their fair share. Must be called on the UI thread, without holding the lock of any cache.
+     * <p>
+     * Caches are queried and evicted outside the lock of the shared cache, as caches call into it
+     * while holding their own lock, so it never waits for a cache.
+     */
+    void makeSpace(long bytes) {
+        while (true) {
+            CacheManager[] snapshot;
+            long share;
+            long maxBytes;
+            synchronized (this) {
+                snapshot = caches.toArray(new CacheManager[0]);
+                share = getFairShare();
+                maxBytes = this.maxBytes;
+            }
+            CacheManager victim = null;
+            long total = 0;
+            long maxExcess = Long.MIN_VALUE;
+            for (CacheManager cache : snapshot) {
+                long cacheBytes = cache.getTileBytes();
+                total += cacheBytes;
+                if (cache.hasEvictableParts() && cacheBytes - share > maxExcess) {
+                    maxExcess = cacheBytes - share;
+                    victim = cache;
+                }
+            }
+            if (total + bytes <= maxBytes || victim == null || !victim.evictLeastRecent()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Make the full quality part available to other caches
+     */
+    synchronized void put(String key, PagePart part) {
+        parts.put(key, part);
+    }
+
+    /**
+     * Remove the part before its bitmap is released
+     */
+    synchronized void remove(String key, PagePart part) {
+        if (parts.get(key) == part) {
+            parts.remove(key);
+        }
+    }
+
+    /**
+     * Copy a part cached by any view into given bitmap, it must have at least the size of the part
+     *
+     * @param canvas      used to draw into the bitmap
+     * @param contentRect set to the area of the bitmap covered by the part
+     * @return true if the part was found
+     */
+    synchronized boolean read(String key, Bitmap bitmap, Canvas canvas, Rect contentRect) {
+        PagePart part = parts.get(key);
+        if (part == null) {
+            return false;
+        }
+        Bitmap source = part.getRenderedBitmap();
+        if (source == null || source.isRecycled() || source.getConfig() != bitmap.getConfig()
+                || part.getWidth() > bitmap.getWidth() || part.getHeight() > bitmap.getHeight()) {
+            return false;
+        }
+        contentRect.set(0, 0, part.getWidth(), part.getHeight());
+        canvas.setBitmap(bitmap);
+        canvas.drawBitmap(source, contentRect, contentRect, null);
+        canvas.setBitmap(null);
+        hits++;
+        return true;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+}
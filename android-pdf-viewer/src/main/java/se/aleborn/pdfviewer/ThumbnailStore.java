@@ -0,0 +1,112 @@
+package se.aleborn.pdfviewer;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import se.aleborn.pdfviewer.model.PagePart;
+import se.aleborn.pdfviewer.util.Constants;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Thumbnails of pages stored in the cache directory for all documents, limited by
+ * {@link Constants.Cache#THUMBNAIL_STORE_SIZE}. Stored thumbnails are used instead of rendering
+ * thumbnails again and are loaded in bulk as low resolution placeholders when a document is opened,
+ * so pages aren't blank while they are rendered.
+ */
+class ThumbnailStore {
+
+    /** Placeholders are stored thumbnails subsampled by this factor */
+    private static final int PLACEHOLDER_SAMPLE_SIZE = 4;
+
+    private static final RectF PAGE_BOUNDS = new RectF(0, 0, 1, 1);
+
+    private final DiskTileCache cache;
+
+    private ThumbnailStore(DiskTileCache cache) {
+        this.cache = cache;
+    }
+
+    static ThumbnailStore get(File cacheDirectory) {
+        return new ThumbnailStore(DiskTileCache.getThumbnails(cacheDirectory));
+    }
+
+    /**
+     * Decode stored thumbnail of the page into given bitmap
+     *
+     * @see DiskTileCache#read(String, Bitmap, Rect)
+     */
+    boolean read(DocumentFingerprint fingerprint, int docPage, Bitmap bitmap, Rect contentRect) {
+        return cache.read(key(fingerprint, docPage), bitmap, contentRect);
+    }
+
+    /**
+     * Store a copy of rendered thumbnail of the page in the background
+     *
+     * @see DiskTileCache#write(String, Bitmap, int, int, BitmapPool)
+     */
+    void write(DocumentFingerprint fingerprint, int docPage, Bitmap bitmap, int width, int height,
+               BitmapPool bitmapPool) {
+        cache.write(key(fingerprint, docPage), bitmap, width, height, bitmapPool);
+    }
+
+    /**
+     * Decode stored thumbnails of the document, nearest to the default page first,
+     * until {@link Constants.Cache#PLACEHOLDERS_SIZE} is reached
+     *
+     * @return placeholders, one for every page with a stored thumbnail
+     */
+    List<PagePart> loadPlaceholders(PdfFile pdfFile, int defaultPage) {
+        List<PagePart> placeholders = new ArrayList<>();
+        DocumentFingerprint fingerprint = pdfFile.getFingerprint();
+        if (fingerprint == null) {
+            return placeholders;
+        }
+        Set<String> keys = new HashSet<>(cache.getKeys(fingerprint.getKey() + '_'));
+        if (keys.isEmpty()) {
+            return placeholders;
+        }
+
+        // pages may be repeated by user pages, each gets its own copy of the bitmap,
+        // as the cache recycles placeholders one by one
+        Map<Integer, Bitmap> decoded = new HashMap<>();
+        long bytes = 0;
+        int pagesCount = pdfFile.getPagesCount();
+        int first = pdfFile.determineValidPageNumberFrom(defaultPage);
+        for (int i = 0; i < pagesCount * 2 && bytes < Constants.Cache.PLACEHOLDERS_SIZE; i++) {
+            // first, first - 1, first + 1, first - 2...
+            int page = (i & 1) == 0 ? first + i / 2 : first - (i + 1) / 2;
+            if (page < 0 || page >= pagesCount) {
+                continue;
+            }
+            int docPage = pdfFile.documentPage(page);
+            Bitmap bitmap = decoded.get(docPage);
+            if (bitmap != null) {
+                if ((bitmap = bitmap.copy(bitmap.getConfig(), false)) == null) {
+                    continue;
+                }
+            } else {
+                String key = key(fingerprint, docPage);
+                if (!keys.contains(key) || (bitmap = cache.decode(key, PLACEHOLDER_SAMPLE_SIZE)) == null) {
+                    continue;
+                }
+                decoded.put(docPage, bitmap);
+            }
+            bytes += bitmap.getAllocationByteCount();
+            placeholders.add(new PagePart(page, bitmap, PAGE_BOUNDS, true, 0,
+                    bitmap.getWidth(), bitmap.getHeight()));
+        }
+        return placeholders;
+    }
+
+    private static String key(DocumentFingerprint fingerprint, int docPage) {
+        return fingerprint.getKey() + '_' + docPage;
+    }
+}
@@ -17,6 +17,9 @@ package se.aleborn.pdfviewer.listener;
 
 import android.view.MotionEvent;
 
+import se.aleborn.pdfviewer.model.FrameMetrics;
+import se.aleborn.pdfviewer.model.RenderMetrics;
+
 public class Callbacks {
 
     /**
@@ -66,6 +69,15 @@ public class Callbacks {
      */
     private OnLongPressListener onLongPressListener;
 
+    /**
+     * Call back object to call with metrics of the latest frames, when frame metrics are enabled
+     */
+    private OnFrameMetricsListener onFrameMetricsListener;
+
+    /**
+     * Call back object to call with latency of rendering stages of the latest tiles, when render metrics are enabled
+     */
+    private OnRenderMetricsListener onRenderMetricsListener;
 
     public void setOnLoadComplete(OnLoadCompleteListener onLoadCompleteListener) {
         this.onLoadCompleteListener = onLoadCompleteListener;
@@ -160,4 +172,32 @@ public class Callbacks {
             onLongPressListener.onLongPress(event);
         }
     }
+
+    public void setOnFrameMetrics(OnFrameMetricsListener onFrameMetricsListener) {
+        this.onFrameMetricsListener = onFrameMetricsListener;
+    }
+
+    public OnFrameMetricsListener getOnFrameMetrics() {
+        return onFrameMetricsListener;
+    }
+
+    public void callOnFrameMetrics(FrameMetrics metrics) {
+        if (onFrameMetricsListener != null) {
+            onFrameMetricsListener.onFrameMetrics(metrics);
+        }
+    }
+
+    public void setOnRenderMetrics(OnRenderMetricsListener onRenderMetricsListener) {
+        this.onRenderMetricsListener = onRenderMetricsListener;
+    }
+
+    public OnRenderMetricsListener getOnRenderMetrics() {
+        return onRenderMetricsListener;
+    }
+
+    public void callOnRenderMetrics(RenderMetrics metrics) {
+        if (onRenderMetricsListener != null) {
+            onRenderMetricsListener.onRenderMetrics(metrics);
+        }
+    }
 }
@@ -0,0 +1,14 @@
+package se.aleborn.pdfviewer.listener;
+
+import se.aleborn.pdfviewer.model.FrameMetrics;
+
+public interface OnFrameMetricsListener {
+
+    /**
+     * Called on the UI thread every {@link se.aleborn.pdfviewer.util.Constants#FRAME_METRICS_WINDOW} frames
+     * when frame metrics are enabled
+     *
+     * @param metrics metrics of the latest frames
+     */
+    void onFrameMetrics(FrameMetrics metrics);
+}
@@ -0,0 +1,14 @@
+package se.aleborn.pdfviewer.listener;
+
+import se.aleborn.pdfviewer.model.RenderMetrics;
+
+public interface OnRenderMetricsListener {
+
+    /**
+     * Called on the UI thread every {@link se.aleborn.pdfviewer.util.Constants#RENDER_METRICS_WINDOW}
+     * rendered tiles when render metrics are enabled
+     *
+     * @param metrics latency of rendering stages of the latest tiles
+     */
+    void onRenderMetrics(RenderMetrics metrics);
+}
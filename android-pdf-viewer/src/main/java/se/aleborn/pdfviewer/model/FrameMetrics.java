@@ -0,0 +1,72 @@
+package se.aleborn.pdfviewer.model;
+
+/**
+ * Timing of frames drawn by PDFView, over the latest frames, see
+ * {@link se.aleborn.pdfviewer.util.Constants#FRAME_METRICS_WINDOW}. Times are in microseconds.
+ */
+public class FrameMetrics {
+
+    private final long frames;
+
+    private final long droppedFrames;
+
+    private final Percentiles drawTime;
+
+    private final Percentiles partsDrawn;
+
+    private final Percentiles partsCulled;
+
+    private final Percentiles planTime;
+
+    public FrameMetrics(long frames, long droppedFrames, Percentiles drawTime, Percentiles partsDrawn,
+                        Percentiles partsCulled, Percentiles planTime) {
+        this.frames = frames;
+        this.droppedFrames = droppedFrames;
+        this.drawTime = drawTime;
+        this.partsDrawn = partsDrawn;
+        this.partsCulled = partsCulled;
+        this.planTime = planTime;
+    }
+
+    /** Number of frames drawn since metrics were enabled */
+    public long getFrames() {
+        return frames;
+    }
+
+    /** Number of frames skipped while the view was scrolling, zooming or rendering, since metrics were enabled */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /** Time spent in onDraw */
+    public Percentiles getDrawTime() {
+        return drawTime;
+    }
+
+    /** Number of parts drawn in a frame */
+    public Percentiles getPartsDrawn() {
+        return partsDrawn;
+    }
+
+    /** Number of parts skipped in a frame because they were off the screen */
+    public Percentiles getPartsCulled() {
+        return partsCulled;
+    }
+
+    /** Time spent planning which parts to load and render, once per loadPages */
+    public Percentiles getPlanTime() {
+        return planTime;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameMetrics{" +
+                "frames=" + frames +
+                ", droppedFrames=" + droppedFrames +
+                ", drawTime=" + drawTime +
+                ", partsDrawn=" + partsDrawn +
+                ", partsCulled=" + partsCulled +
+                ", planTime=" + planTime +
+                '}';
+    }
+}
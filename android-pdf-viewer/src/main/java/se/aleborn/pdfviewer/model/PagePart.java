@@ -30,13 +30,45 @@ public class PagePart {
 
     private int cacheOrder;
 
+    /** Size of the rendered content, which may take only the top left part of a bigger pooled bitmap */
+    private int width;
+
+    private int height;
+
+    /** Zoom level the part is rendered for, parts of different levels are different parts */
+    private float zoom;
+
+    /** True for a reduced resolution part rendered before the full quality one */
+    private boolean draft;
+
+    /** Key of the part in the cache of rendered parts, packed from page, zoom level, row and column */
+    private long key;
+
+    /** Key of the part in the cache shared by views, null if it's not shared */
+    private String sharedKey;
+
     public PagePart(int page, Bitmap renderedBitmap, RectF pageRelativeBounds, boolean thumbnail, int cacheOrder) {
+        this(page, renderedBitmap, pageRelativeBounds, thumbnail, cacheOrder,
+                renderedBitmap != null ? renderedBitmap.getWidth() : 0,
+                renderedBitmap != null ? renderedBitmap.getHeight() : 0);
+    }
+
+    public PagePart(int page, Bitmap renderedBitmap, RectF pageRelativeBounds, boolean thumbnail, int cacheOrder,
+                    int width, int height) {
+        this(page, renderedBitmap, pageRelativeBounds, thumbnail, cacheOrder, width, height, 0);
+    }
+
+    public PagePart(int page, Bitmap renderedBitmap, RectF pageRelativeBounds, boolean thumbnail, int cacheOrder,
+                    int width, int height, float zoom) {
         super();
         this.page = page;
         this.renderedBitmap = renderedBitmap;
         this.pageRelativeBounds = pageRelativeBounds;
         this.thumbnail = thumbnail;
         this.cacheOrder = cacheOrder;
+        this.width = width;
+        this.height = height;
+        this.zoom = zoom;
     }
 
     public int getCacheOrder() {
@@ -59,10 +91,46 @@ public class PagePart {
         return thumbnail;
     }
 
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public float getZoom() {
+        return zoom;
+    }
+
     public void setCacheOrder(int cacheOrder) {
         this.cacheOrder = cacheOrder;
     }
 
+    public boolean isDraft() {
+        return draft;
+    }
+
+    public void setDraft(boolean draft) {
+        this.draft = draft;
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    public void setKey(long key) {
+        this.key = key;
+    }
+
+    public String getSharedKey() {
+        return sharedKey;
+    }
+
+    public void setSharedKey(String sharedKey) {
+        this.sharedKey = sharedKey;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof PagePart)) {
@@ -71,6 +139,7 @@ public class PagePart {
 
         PagePart part = (PagePart) obj;
         return part.getPage() == page
+                && (thumbnail || part.getZoom() == zoom)
                 && part.getPageRelativeBounds().left == pageRelativeBounds.left
                 && part.getPageRelativeBounds().right == pageRelativeBounds.right
                 && part.getPageRelativeBounds().top == pageRelativeBounds.top
@@ -0,0 +1,51 @@
+package se.aleborn.pdfviewer.model;
+
+/**
+ * Percentiles of a series of samples, nearest-rank. All values are 0 if there are no samples.
+ */
+public class Percentiles {
+
+    private final int count;
+
+    private final long p50;
+
+    private final long p95;
+
+    private final long p99;
+
+    private final long max;
+
+    public Percentiles(int count, long p50, long p95, long p99, long max) {
+        this.count = count;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    /** Number of samples */
+    public int getCount() {
+        return count;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP95() {
+        return p95;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "p50=" + p50 + " p95=" + p95 + " p99=" + p99 + " max=" + max + " (" + count + ")";
+    }
+}
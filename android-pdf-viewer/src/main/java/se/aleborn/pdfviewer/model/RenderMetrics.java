@@ -0,0 +1,72 @@
+package se.aleborn.pdfviewer.model;
+
+/**
+ * Latency of stages of rendering full quality tiles, over the latest tiles, see
+ * {@link se.aleborn.pdfviewer.util.Constants#RENDER_METRICS_WINDOW}. Times are in microseconds.
+ */
+public class RenderMetrics {
+
+    private final long tiles;
+
+    private final Percentiles queueWait;
+
+    private final Percentiles allocation;
+
+    private final Percentiles render;
+
+    private final Percentiles postDelay;
+
+    private final Percentiles total;
+
+    public RenderMetrics(long tiles, Percentiles queueWait, Percentiles allocation, Percentiles render,
+                         Percentiles postDelay, Percentiles total) {
+        this.tiles = tiles;
+        this.queueWait = queueWait;
+        this.allocation = allocation;
+        this.render = render;
+        this.postDelay = postDelay;
+        this.total = total;
+    }
+
+    /** Number of tiles rendered since metrics were enabled */
+    public long getTiles() {
+        return tiles;
+    }
+
+    /** Time from queuing the pass of a tile until a worker takes it */
+    public Percentiles getQueueWait() {
+        return queueWait;
+    }
+
+    /** Time spent acquiring bitmaps from the pool or allocating them */
+    public Percentiles getAllocation() {
+        return allocation;
+    }
+
+    /** Time spent producing pixels: opening and rendering the page, or copying a cached tile */
+    public Percentiles getRender() {
+        return render;
+    }
+
+    /** Time from posting a rendered tile until the UI thread handles it */
+    public Percentiles getPostDelay() {
+        return postDelay;
+    }
+
+    /** Time from first queuing a tile until it's cached and the view is invalidated */
+    public Percentiles getTotal() {
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderMetrics{" +
+                "tiles=" + tiles +
+                ", queueWait=" + queueWait +
+                ", allocation=" + allocation +
+                ", render=" + render +
+                ", postDelay=" + postDelay +
+                ", total=" + total +
+                '}';
+    }
+}
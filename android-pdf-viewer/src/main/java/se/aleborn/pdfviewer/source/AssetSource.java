@@ -22,13 +22,15 @@ import android.graphics.pdf.PdfRenderer;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
+import se.aleborn.pdfviewer.util.FileUtils;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
-public class AssetSource implements DocumentSource {
+public class AssetSource implements FileDescriptorSource {
 
     private final String assetName;
 
@@ -38,8 +40,13 @@ public class AssetSource implements DocumentSource {
 
     @Override
     public PdfRenderer createRenderer(Context context) throws IOException {
+        return new PdfRenderer(createFileDescriptor(context));
+    }
+
+    @Override
+    public ParcelFileDescriptor createFileDescriptor(Context context) throws IOException {
         File file = copyToFile(context);
-        return new PdfRenderer(ParcelFileDescriptor.open(file,ParcelFileDescriptor.MODE_READ_ONLY));
+        return ParcelFileDescriptor.open(file,ParcelFileDescriptor.MODE_READ_ONLY);
     }
 
     private File copyToFile(Context context) {
@@ -48,8 +55,12 @@ public class AssetSource implements DocumentSource {
         InputStream in = null;
         OutputStream out = null;
         try {
-            in = assetManager.open(assetName);
             File file = new File(context.getCacheDir(), assetName);
+            // an identical copy is kept, so its modification time, part of the disk cache key, doesn't change
+            if (file.exists() && FileUtils.contentEquals(assetManager.open(assetName), file)) {
+                return file;
+            }
+            in = assetManager.open(assetName);
             out = new FileOutputStream(file);
 
             byte[] buffer = new byte[1024];
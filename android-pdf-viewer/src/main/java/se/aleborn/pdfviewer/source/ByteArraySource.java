@@ -23,7 +23,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
-public class ByteArraySource implements DocumentSource {
+public class ByteArraySource implements FileDescriptorSource {
 
     private static final String TAG = ByteArraySource.class.getName();
     private byte[] data;
@@ -34,7 +34,12 @@ public class ByteArraySource implements DocumentSource {
 
     @Override
     public PdfRenderer createRenderer(Context context) throws IOException {
-        return new PdfRenderer(getFileDescriptor(data));
+        return new PdfRenderer(createFileDescriptor(context));
+    }
+
+    @Override
+    public ParcelFileDescriptor createFileDescriptor(Context context) throws IOException {
+        return getFileDescriptor(data);
     }
 
     private ParcelFileDescriptor getFileDescriptor(byte[] fileData) throws IOException {
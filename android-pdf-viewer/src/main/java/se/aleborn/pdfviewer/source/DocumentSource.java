@@ -22,5 +22,12 @@ import android.graphics.pdf.PdfRenderer;
 import java.io.IOException;
 
 public interface DocumentSource {
+    /**
+     * Open a renderer of the document. Ownership is passed to the caller.
+     *
+     * @deprecated a renderer can't be duplicated, so documents of sources implementing only this method
+     * are rendered on a single worker, without disk caching. Implement {@link FileDescriptorSource} instead.
+     */
+    @Deprecated
     PdfRenderer createRenderer(Context context) throws IOException;
 }
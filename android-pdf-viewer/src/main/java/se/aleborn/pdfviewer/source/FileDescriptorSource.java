@@ -0,0 +1,18 @@
+package se.aleborn.pdfviewer.source;
+
+import android.content.Context;
+import android.os.ParcelFileDescriptor;
+
+import java.io.IOException;
+
+/**
+ * Source which provides a descriptor of the document, so it can be rendered on several workers
+ * and identified for disk caching.
+ */
+public interface FileDescriptorSource extends DocumentSource {
+    /**
+     * Open a read only descriptor of the document. Ownership is passed to the caller.
+     * The descriptor is duplicated to open one renderer per rendering worker, so it should be seekable.
+     */
+    ParcelFileDescriptor createFileDescriptor(Context context) throws IOException;
+}
@@ -23,7 +23,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
-public class FileSource implements DocumentSource {
+public class FileSource implements FileDescriptorSource {
 
     private File file;
 
@@ -33,9 +33,14 @@ public class FileSource implements DocumentSource {
 
     @Override
     public PdfRenderer createRenderer(Context context) throws IOException {
+        return new PdfRenderer(createFileDescriptor(context));
+    }
+
+    @Override
+    public ParcelFileDescriptor createFileDescriptor(Context context) throws IOException {
         try {
 
-            return new PdfRenderer(ParcelFileDescriptor.open(file,ParcelFileDescriptor.MODE_READ_ONLY));
+            return ParcelFileDescriptor.open(file,ParcelFileDescriptor.MODE_READ_ONLY);
         }
         catch (  FileNotFoundException e) {
             e.printStackTrace();
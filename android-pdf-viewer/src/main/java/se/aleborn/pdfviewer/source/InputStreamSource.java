@@ -23,7 +23,7 @@ import android.os.ParcelFileDescriptor;
 import java.io.IOException;
 import java.io.InputStream;
 
-public class InputStreamSource implements DocumentSource {
+public class InputStreamSource implements FileDescriptorSource {
 
     private InputStream inputStream;
 
@@ -33,6 +33,11 @@ public class InputStreamSource implements DocumentSource {
 
     @Override
     public PdfRenderer createRenderer(Context context) throws IOException {
+        return new PdfRenderer(createFileDescriptor(context));
+    }
+
+    @Override
+    public ParcelFileDescriptor createFileDescriptor(Context context) throws IOException {
         ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
         ParcelFileDescriptor.AutoCloseOutputStream outputStream = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
         int len;
@@ -42,6 +47,6 @@ public class InputStreamSource implements DocumentSource {
         inputStream.close();
         outputStream.flush();
         outputStream.close();
-        return new PdfRenderer(pipe[0]);
+        return pipe[0];
     }
 }
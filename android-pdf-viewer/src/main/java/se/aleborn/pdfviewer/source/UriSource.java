@@ -22,7 +22,7 @@ import android.os.ParcelFileDescriptor;
 
 import java.io.IOException;
 
-public class UriSource implements DocumentSource {
+public class UriSource implements FileDescriptorSource {
 
     private Uri uri;
 
@@ -32,7 +32,11 @@ public class UriSource implements DocumentSource {
 
     @Override
     public PdfRenderer createRenderer(Context context) throws IOException {
-        ParcelFileDescriptor fileDescriptor = context.getContentResolver().openFileDescriptor(uri, "r");
-        return new PdfRenderer(fileDescriptor);
+        return new PdfRenderer(createFileDescriptor(context));
+    }
+
+    @Override
+    public ParcelFileDescriptor createFileDescriptor(Context context) throws IOException {
+        return context.getContentResolver().openFileDescriptor(uri, "r");
     }
 }
@@ -29,15 +29,80 @@ public class Constants {
      */
     public static float PART_SIZE = 256;
 
+    /**
+     * Between 0 and 1, size of draft tiles relative to full tiles in progressive rendering (default 0.5,
+     * a quarter of the pixels)
+     */
+    public static float DRAFT_SCALE = 0.5f;
+
     /** Part of document above and below screen that should be preloaded, in dp */
     public static int PRELOAD_OFFSET = 20;
 
+    /**
+     * With velocity prefetch, preload margin in the direction of scrolling grows by the distance
+     * travelled in this time at the current velocity, in seconds
+     */
+    public static float PREFETCH_TIME = 0.25f;
+
+    /** Maximum length of the velocity prefetch margin, in screens */
+    public static float PREFETCH_MAX_SCREENS = 1f;
+
+    /** With compositing, time the view has to be idle before visible pages are merged, in ms (default 300) */
+    public static long COMPOSITE_IDLE_DELAY = 300;
+
+    /**
+     * With frame metrics, number of latest frames percentiles are computed for, metrics are also reported
+     * to the listener every this many frames (default 120)
+     */
+    public static int FRAME_METRICS_WINDOW = 120;
+
+    /**
+     * With render metrics, number of latest tiles percentiles are computed for, metrics are also reported
+     * to the listener every this many tiles (default 200)
+     */
+    public static int RENDER_METRICS_WINDOW = 200;
+
+    /**
+     * Number of pages around the default page measured before the document is shown
+     * when incremental layout is enabled, other pages are measured in the background (default 20)
+     */
+    public static int INCREMENTAL_LAYOUT_MEASURED_PAGES = 20;
+
     public static class Cache {
 
-        /** The size of the cache (number of bitmaps kept) */
+        /**
+         * Maximum number of parts requested at once, the cache itself is limited in bytes,
+         * see {@link #TILE_CACHE_MEMORY_FRACTION} (default 120)
+         */
         public static int CACHE_SIZE = 120;
 
+        /** Part of the app's memory class used for cached parts, unless a size is configured (default 1/8) */
+        public static float TILE_CACHE_MEMORY_FRACTION = 1f / 8;
+
+        /** Part of the app's memory class used for parts of all views using the shared cache (default 1/4) */
+        public static float SHARED_CACHE_MEMORY_FRACTION = 1f / 4;
+
+        /** Part of the app's memory class used for cached thumbnails, unless a size is configured (default 1/32) */
+        public static float THUMBNAIL_CACHE_MEMORY_FRACTION = 1f / 32;
+
+        /**
+         * @deprecated thumbnails are limited in bytes, see {@link #THUMBNAIL_CACHE_MEMORY_FRACTION},
+         * this value is ignored
+         */
+        @Deprecated
         public static int THUMBNAILS_CACHE_SIZE = 8;
+
+        /** Maximum size of bitmaps kept for reuse after being evicted from the cache, in bytes */
+        public static long BITMAP_POOL_SIZE = 16 * 1024 * 1024;
+
+        /** Maximum size of rendered parts stored in the cache directory when disk cache is enabled, in bytes */
+        public static long DISK_CACHE_SIZE = 64 * 1024 * 1024;
+
+        /** Maximum size of thumbnails stored in the cache directory for all documents, in bytes */
+        public static long THUMBNAIL_STORE_SIZE = 16 * 1024 * 1024;
+
+        /** Maximum size of stored thumbnails loaded as placeholders when a document is opened, in bytes */
+        public static long PLACEHOLDERS_SIZE = 4 * 1024 * 1024;
     }
 
     public static class Pinch {
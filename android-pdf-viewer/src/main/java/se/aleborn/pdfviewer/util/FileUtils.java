@@ -17,7 +17,10 @@ package se.aleborn.pdfviewer.util;
 
 import android.content.Context;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -59,4 +62,39 @@ public class FileUtils {
             }
         }
     }
+
+    /**
+     * Compare the stream with the content of the file, the stream is closed
+     */
+    public static boolean contentEquals(InputStream inputStream, File file) throws IOException {
+        InputStream fileStream = null;
+        try {
+            InputStream stream = new BufferedInputStream(inputStream);
+            fileStream = new BufferedInputStream(new FileInputStream(file));
+            int read;
+            while ((read = stream.read()) != -1) {
+                if (read != fileStream.read()) {
+                    return false;
+                }
+            }
+            return fileStream.read() == -1;
+        } finally {
+            closeQuietly(inputStream);
+            closeQuietly(fileStream);
+        }
+    }
+
+    /**
+     * Close ignoring errors, does nothing for null
+     */
+    public static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
 }
@@ -59,6 +59,32 @@ public class MathUtils {
         return number;
     }
 
+    /**
+     * Snap the zoom up to a level of a ladder, so tiles rendered for the level are never drawn enlarged
+     *
+     * @param zoom   zoom to snap
+     * @param levels zoom levels in any order, or null for powers of 2
+     * @return the smallest level not below the zoom, or the largest level if the zoom is above all of them
+     */
+    public static float quantizeZoom(float zoom, float[] levels) {
+        if (zoom <= 0) {
+            return zoom;
+        }
+        if (levels == null || levels.length == 0) {
+            // tolerance keeps exact powers of 2 from being rounded up by the error of log
+            return (float) Math.pow(2, Math.ceil(Math.log(zoom) / Math.log(2) - 1e-6));
+        }
+        float above = Float.MAX_VALUE;
+        float largest = levels[0];
+        for (float level : levels) {
+            if (level >= zoom && level < above) {
+                above = level;
+            }
+            largest = Math.max(largest, level);
+        }
+        return above != Float.MAX_VALUE ? above : largest;
+    }
+
     public static float max(float number, float max) {
         if (number > max) {
             return max;
@@ -0,0 +1,60 @@
+package se.aleborn.pdfviewer.util;
+
+import se.aleborn.pdfviewer.model.Percentiles;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of the latest samples of a value, older samples are overwritten.
+ * Adding a sample doesn't allocate, so it can be used while drawing.
+ */
+public class RollingHistogram {
+
+    private final long[] samples;
+
+    /** Samples sorted to compute percentiles, reused */
+    private final long[] sorted;
+
+    private int next = 0;
+
+    private int count = 0;
+
+    /**
+     * @param capacity number of latest samples kept
+     */
+    public RollingHistogram(int capacity) {
+        samples = new long[Math.max(1, capacity)];
+        sorted = new long[samples.length];
+    }
+
+    public void add(long sample) {
+        samples[next] = sample;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public Percentiles getPercentiles() {
+        if (count == 0) {
+            return new Percentiles(0, 0, 0, 0, 0);
+        }
+        System.arraycopy(samples, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        return new Percentiles(count, percentile(0.5f), percentile(0.95f), percentile(0.99f), sorted[count - 1]);
+    }
+
+    private long percentile(float fraction) {
+        int rank = (int) Math.ceil(fraction * count);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    public void clear() {
+        next = 0;
+        count = 0;
+    }
+}